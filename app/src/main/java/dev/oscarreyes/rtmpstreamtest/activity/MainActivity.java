@@ -35,6 +35,8 @@ public class MainActivity extends BaseActivity {
 
 	@Override
 	protected void onPermissionsGranted() {
+		RtmpStream.setCodecCache(this.getCacheDir());
+
 		this.rtmpStream = new RtmpStream();
 	}
 
@@ -0,0 +1,176 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import dev.oscarreyes.rtmp.server.DashIngestServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end test of audio renditions muxed by track index into DASH, against the local HTTP stand-in
+ */
+@RunWith(AndroidJUnit4.class)
+public class DashRenditionIngestTest {
+	private static final int SAMPLE_RATE = 44100;
+	private static final int FRAME_SAMPLES = 1024;
+	private static final int FRAME_SIZE = 128;
+	private static final int SEGMENTS = 3;
+
+	/**
+	 * AudioSpecificConfig for AAC-LC, 44.1 kHz, stereo
+	 */
+	private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+
+	private static final AudioProfile[] PROFILES = {
+		AudioProfile.DEFAULT,
+		new AudioProfile(AudioProfile.Aac.LC, SAMPLE_RATE, AudioProfile.CHANNEL_STEREO, 96000),
+		new AudioProfile(AudioProfile.Aac.LC, SAMPLE_RATE, AudioProfile.CHANNEL_STEREO, 64000)
+	};
+
+	private DashIngestServer server;
+	private FFMpegMuxer muxer;
+	private final int[] tracks = new int[PROFILES.length];
+
+	@Before
+	public void setUp() throws Exception {
+		this.server = new DashIngestServer();
+		this.server.start();
+
+		this.muxer = new FFMpegMuxer();
+		for (int i = 0; i < PROFILES.length; i++) {
+			this.tracks[i] = this.muxer.addTrack(AudioEncoder.getMediaFormat(PROFILES[i]));
+		}
+		this.muxer.setDestination(this.server.getUrl("live/manifest.mpd"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.muxer.stop();
+		this.server.close();
+	}
+
+	/**
+	 * Finds a box by its path of types, from the top level of an ISO BMFF buffer
+	 *
+	 * @return Payload of the first matching box, positioned after its header, or null
+	 */
+	private static ByteBuffer findBox(ByteBuffer parent, String... path) {
+		final ByteBuffer buffer = parent.duplicate();
+
+		while (buffer.remaining() >= 8) {
+			final int start = buffer.position();
+			long size = buffer.getInt() & 0xFFFFFFFFL;
+			final byte[] type = new byte[4];
+
+			buffer.get(type);
+
+			if (size == 1) {
+				size = buffer.getLong();
+			} else if (size == 0) {
+				size = buffer.limit() - start;
+			}
+
+			if (new String(type).equals(path[0])) {
+				final ByteBuffer box = buffer.slice();
+
+				box.limit((int) (start + size - buffer.position()));
+
+				if (path.length == 1) {
+					return box;
+				}
+
+				final String[] rest = new String[path.length - 1];
+
+				System.arraycopy(path, 1, rest, 0, rest.length);
+
+				return findBox(box, rest);
+			}
+
+			buffer.position((int) (start + size));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads the decode time of the first fragment in a media segment
+	 */
+	private static long getDecodeTime(byte[] segment) {
+		final ByteBuffer tfdt = findBox(ByteBuffer.wrap(segment), "moof", "traf", "tfdt");
+
+		assertNotNull("Segment without tfdt", tfdt);
+
+		return tfdt.get(0) == 1 ? tfdt.getLong(4) : tfdt.getInt(4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Reads the media timescale of a track from its init segment
+	 */
+	private static long getTimescale(byte[] init) {
+		final ByteBuffer mdhd = findBox(ByteBuffer.wrap(init), "moov", "trak", "mdia", "mdhd");
+
+		assertNotNull("Init segment without mdhd", mdhd);
+
+		return (mdhd.get(0) == 1 ? mdhd.getInt(20) : mdhd.getInt(12)) & 0xFFFFFFFFL;
+	}
+
+	@Test
+	public void cutsEveryRenditionAtTheSameFrames() throws Exception {
+		// The muxer rounds segments to whole frames, all renditions must be cut after as many
+		final long segmentFrames = Math.round(AudioProfile.DEFAULT.alignDuration(5000000) * (double) SAMPLE_RATE / 1000000 / FRAME_SAMPLES);
+		final long frames = segmentFrames * SEGMENTS + 10;
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+		this.muxer.start();
+
+		for (int track : this.tracks) {
+			info.set(0, AUDIO_SPECIFIC_CONFIG.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+			this.muxer.writeAudioSample(ByteBuffer.wrap(AUDIO_SPECIFIC_CONFIG), info, track);
+		}
+
+		for (long i = 0; i < frames; i++) {
+			// Exact frame times, so that rounding to the media timescale cannot move a cut
+			final long pts = i * FRAME_SAMPLES * 1000000L / SAMPLE_RATE;
+
+			// Renditions arrive out of step, as from their own encoder threads
+			for (int j = 0; j < this.tracks.length; j++) {
+				final int track = this.tracks[(int) ((i + j) % this.tracks.length)];
+
+				info.set(0, FRAME_SIZE, pts, 0);
+				this.muxer.writeAudioSample(ByteBuffer.wrap(new byte[FRAME_SIZE]), info, track);
+			}
+		}
+
+		this.muxer.stop();
+
+		// Files are removed at exit once every upload completed, the stand-in keeps their content
+		assertTrue(this.server.awaitDeleted("/live/manifest.mpd", 10, TimeUnit.SECONDS));
+
+		for (int representation = 0; representation < PROFILES.length; representation++) {
+			final byte[] init = this.server.getUpload(String.format(Locale.ROOT, "/live/init-stream%d.m4s", representation));
+
+			assertNotNull(this.server.getPaths().toString(), init);
+
+			final long timescale = getTimescale(init);
+
+			for (int number = 1; number <= SEGMENTS; number++) {
+				final String path = String.format(Locale.ROOT, "/live/chunk-stream%d-%05d.m4s", representation, number);
+				final byte[] segment = this.server.getUpload(path);
+
+				assertNotNull(path, segment);
+				assertEquals(path, (number - 1) * segmentFrames * FRAME_SAMPLES * timescale / SAMPLE_RATE, getDecodeTime(segment));
+			}
+		}
+	}
+}
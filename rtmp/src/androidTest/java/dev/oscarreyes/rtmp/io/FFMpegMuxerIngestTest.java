@@ -0,0 +1,153 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dev.oscarreyes.rtmp.server.IngestServer;
+import dev.oscarreyes.rtmp.server.LatencyAnalyzer;
+import dev.oscarreyes.rtmp.server.Recording;
+import dev.oscarreyes.rtmp.server.RtmpMessage;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end test of the native muxer path against the local ingest stand-in
+ */
+@RunWith(AndroidJUnit4.class)
+public class FFMpegMuxerIngestTest {
+	private static final String TAG = "FFMpegMuxerIngestTest";
+	private static final int FRAMES = 500;
+	private static final int FRAME_SIZE = 128;
+
+	/**
+	 * AudioSpecificConfig for HE-AAC, 32 kHz, mono
+	 */
+	private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x2A, (byte) 0x88};
+
+	private IngestServer server;
+	private FFMpegMuxer muxer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.server = new IngestServer();
+		this.server.start();
+
+		this.muxer = new FFMpegMuxer();
+		this.muxer.addTrack(AudioEncoder.getMediaFormat(AudioProfile.VOICE));
+		this.muxer.setDestination(this.server.getUrl("live", "test"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.muxer.stop();
+		this.server.close();
+	}
+
+	@Test
+	public void streamsAudioUnpaced() throws Exception {
+		final long frameDuration = AudioProfile.VOICE.getFrameDurationUs();
+		final long[] writeNanos = new long[FRAMES];
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+		this.muxer.start();
+
+		info.set(0, AUDIO_SPECIFIC_CONFIG.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+		this.muxer.writeAudioSample(ByteBuffer.wrap(AUDIO_SPECIFIC_CONFIG), info);
+
+		final long start = System.nanoTime();
+
+		for (int i = 0; i < FRAMES; i++) {
+			info.set(0, FRAME_SIZE, i * frameDuration, 0);
+			writeNanos[i] = System.nanoTime();
+			this.muxer.writeAudioSample(ByteBuffer.wrap(new byte[FRAME_SIZE]), info);
+		}
+
+		final long elapsed = System.nanoTime() - start;
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertNotNull(recording);
+		assertTrue(recording.awaitMessages(FRAMES + 1, 10, TimeUnit.SECONDS));
+		assertEquals("test", recording.getStreamName());
+		assertEquals(recording.validate().toString(), 0, recording.validate().size());
+
+		// Writes are matched to arrivals in order, skipping the sequence header
+		final List<RtmpMessage> audio = recording.getMessages(RtmpMessage.AUDIO);
+		final long[] latencies = new long[FRAMES];
+
+		for (int i = 0; i < FRAMES; i++) {
+			latencies[i] = audio.get(i + 1).arrivalNanos - writeNanos[i];
+		}
+
+		Arrays.sort(latencies);
+
+		Log.i(TAG, String.format("%d frames in %d ms, %.1f frames/s, latency p50=%.2f ms p99=%.2f ms",
+			FRAMES, elapsed / 1000000, FRAMES * 1e9 / elapsed,
+			latencies[FRAMES / 2] / 1e6, latencies[FRAMES * 99 / 100] / 1e6));
+	}
+
+	@Test
+	public void carriesLatencyTracesAsTextData() throws Exception {
+		final long frameDuration = AudioProfile.VOICE.getFrameDurationUs();
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		final LatencyTracer tracer = new LatencyTracer(100);
+		final List<Long> traced = new ArrayList<>();
+
+		this.muxer.addTextTrack();
+		this.muxer.start();
+
+		info.set(0, AUDIO_SPECIFIC_CONFIG.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+		this.muxer.writeAudioSample(ByteBuffer.wrap(AUDIO_SPECIFIC_CONFIG), info);
+
+		for (int i = 0; i < FRAMES; i++) {
+			final long pts = i * frameDuration;
+
+			info.set(0, FRAME_SIZE, pts, 0);
+			this.muxer.writeAudioSample(ByteBuffer.wrap(new byte[FRAME_SIZE]), info);
+
+			// Traces follow their audio packet with the same timestamp, as the channel writes them
+			if (tracer.isDue(pts)) {
+				final long now = System.nanoTime() / 1000;
+
+				this.muxer.writeText(tracer.trace(pts, now, now, now).toString(), pts);
+				traced.add(pts);
+			}
+		}
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertNotNull(recording);
+
+		this.muxer.stop();
+
+		assertTrue(recording.awaitClosed(10, TimeUnit.SECONDS));
+		assertEquals(recording.validate().toString(), 0, recording.validate().size());
+
+		final LatencyAnalyzer analyzer = new LatencyAnalyzer(recording);
+		final List<LatencyTracer.Trace> traces = analyzer.getTraces();
+
+		assertEquals(traced.size(), traces.size());
+		assertEquals(0, analyzer.getMissing());
+
+		for (int i = 0; i < traces.size(); i++) {
+			assertEquals(i, traces.get(i).sequence);
+			assertEquals((long) traced.get(i), traces.get(i).pts);
+		}
+
+		assertEquals(0, analyzer.getPercentile(LatencyAnalyzer.MUX, 100));
+
+		Log.i(TAG, analyzer.toString());
+	}
+}
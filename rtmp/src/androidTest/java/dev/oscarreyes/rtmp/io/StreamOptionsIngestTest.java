@@ -0,0 +1,132 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dev.oscarreyes.rtmp.server.IngestServer;
+import dev.oscarreyes.rtmp.server.Recording;
+import dev.oscarreyes.rtmp.server.RtmpMessage;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks the stream option presets against the local ingest stand-in.
+ * <p>
+ * Each preset streams a paced phase, where the write to arrival latency is measured, followed
+ * by an unpaced phase that measures how many frames per second the muxer sustains.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StreamOptionsIngestTest {
+	private static final String TAG = "StreamOptionsIngestTest";
+	private static final int PACED_FRAMES = 200;
+	private static final int UNPACED_FRAMES = 5000;
+	private static final int FRAME_SIZE = 372; // 128 kbps AAC-LC at 44.1 kHz
+
+	/**
+	 * AudioSpecificConfig for AAC-LC, 44.1 kHz, stereo
+	 */
+	private static final byte[] AUDIO_SPECIFIC_CONFIG = {0x12, 0x10};
+
+	private IngestServer server;
+	private FFMpegMuxer muxer;
+
+	@Before
+	public void setUp() throws Exception {
+		this.server = new IngestServer();
+		this.server.start();
+
+		this.muxer = new FFMpegMuxer();
+		this.muxer.addTrack(AudioEncoder.getMediaFormat(AudioProfile.DEFAULT));
+		this.muxer.setDestination(this.server.getUrl("live", "test"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.muxer.stop();
+		this.server.close();
+	}
+
+	@Test
+	public void benchmarkDefaults() throws Exception {
+		this.benchmark("default", new StreamOptions());
+	}
+
+	@Test
+	public void benchmarkLowLatency() throws Exception {
+		this.benchmark("lowLatency", StreamOptions.lowLatency());
+	}
+
+	@Test
+	public void benchmarkHighThroughput() throws Exception {
+		this.benchmark("highThroughput", StreamOptions.highThroughput());
+	}
+
+	private void benchmark(String name, StreamOptions options) throws Exception {
+		final long frameDuration = AudioProfile.DEFAULT.getFrameDurationUs();
+		final long[] writeNanos = new long[PACED_FRAMES];
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+		final ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_SIZE);
+
+		this.muxer.setOptions(options);
+		this.muxer.start();
+
+		info.set(0, AUDIO_SPECIFIC_CONFIG.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+		this.muxer.writeAudioSample(ByteBuffer.wrap(AUDIO_SPECIFIC_CONFIG), info);
+
+		final long pacedStart = System.nanoTime();
+
+		for (int i = 0; i < PACED_FRAMES; i++) {
+			final long due = pacedStart + i * frameDuration * 1000;
+
+			while (System.nanoTime() < due) {
+				Thread.sleep(1);
+			}
+
+			info.set(0, FRAME_SIZE, i * frameDuration, 0);
+			writeNanos[i] = System.nanoTime();
+			this.muxer.writeAudioSample(frame, info);
+		}
+
+		final long unpacedStart = System.nanoTime();
+
+		for (int i = PACED_FRAMES; i < PACED_FRAMES + UNPACED_FRAMES; i++) {
+			info.set(0, FRAME_SIZE, i * frameDuration, 0);
+			this.muxer.writeAudioSample(frame, info);
+		}
+
+		// Stopping flushes whatever the preset still buffers, which counts towards its throughput
+		this.muxer.stop();
+
+		final long unpacedElapsed = System.nanoTime() - unpacedStart;
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertNotNull(recording);
+		assertTrue(recording.awaitMessages(PACED_FRAMES + UNPACED_FRAMES + 1, 10, TimeUnit.SECONDS));
+		assertEquals(recording.validate().toString(), 0, recording.validate().size());
+
+		final List<RtmpMessage> audio = recording.getMessages(RtmpMessage.AUDIO);
+		final long[] latencies = new long[PACED_FRAMES];
+
+		for (int i = 0; i < PACED_FRAMES; i++) {
+			latencies[i] = audio.get(i + 1).arrivalNanos - writeNanos[i];
+		}
+
+		Arrays.sort(latencies);
+
+		Log.i(TAG, String.format("%s %s: latency p50=%.2f ms p99=%.2f ms, unpaced %.0f frames/s (%.1f Mbps)",
+			name, options, latencies[PACED_FRAMES / 2] / 1e6, latencies[PACED_FRAMES * 99 / 100] / 1e6,
+			UNPACED_FRAMES * 1e9 / unpacedElapsed, UNPACED_FRAMES * FRAME_SIZE * 8 * 1e3 / unpacedElapsed));
+	}
+}
@@ -1,34 +1,264 @@
 package dev.oscarreyes.rtmp;
 
 import android.util.Log;
+import android.view.Surface;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
+import dev.oscarreyes.rtmp.io.AudioProfile;
+import dev.oscarreyes.rtmp.io.CodecRegistry;
+import dev.oscarreyes.rtmp.io.MappedFileSource;
 import dev.oscarreyes.rtmp.io.MasterEncoderChannel;
+import dev.oscarreyes.rtmp.io.Rendition;
+import dev.oscarreyes.rtmp.io.StreamOptions;
+import dev.oscarreyes.rtmp.io.VideoProfile;
+import dev.oscarreyes.rtmp.net.BandwidthProbe;
 
 public class RtmpStream {
+	private static final String TAG = "RtmpStream";
+	private static final String DEFAULT_DESTINATION = "rtmp://192.168.0.7/live/STREAM_TEST";
 
 	private MasterEncoderChannel masterChannel;
 
+	private AudioProfile audioProfile;
+	private String destination = DEFAULT_DESTINATION;
+
+	/**
+	 * Bandwidth probe settings, probing is disabled while duration is 0
+	 */
+	private long probeDuration = 0;
+	private double probeMargin = BandwidthProbe.DEFAULT_MARGIN;
+	private AudioProfile[] probeProfiles;
+
+	private BandwidthProbe probe;
+	private Thread starter;
+	private boolean streaming;
+
 	public RtmpStream() {
-		this.masterChannel = new MasterEncoderChannel("RTMP");
+		this(AudioProfile.DEFAULT);
+	}
+
+	/**
+	 * Creates a stream with a specific audio encoding profile
+	 *
+	 * @param audioProfile Audio encoding profile
+	 */
+	public RtmpStream(AudioProfile audioProfile) {
+		this.audioProfile = audioProfile;
+		this.masterChannel = new MasterEncoderChannel("RTMP", audioProfile);
+	}
+
+	/**
+	 * Sets the ingest URL to publish to
+	 *
+	 * @param destination RTMP URL
+	 */
+	public void setDestination(String destination) {
+		this.destination = destination;
+	}
+
+	/**
+	 * Persists encoder benchmark scores so that encoder selection is only measured once per device build.
+	 * Scores are loaded and measured in the background between streams, so this can be called from the main thread.
+	 *
+	 * @param directory Cache directory, usually Context.getCacheDir()
+	 */
+	public static void setCodecCache(File directory) {
+		CodecRegistry.getInstance().setCacheDirectory(directory);
+	}
+
+	/**
+	 * Adds an H.264 video track to the stream, applied on the next start
+	 *
+	 * @param videoProfile Video encoding profile, or null for an audio only stream
+	 */
+	public void setVideoProfile(VideoProfile videoProfile) {
+		this.masterChannel.setVideoProfile(videoProfile);
+	}
+
+	/**
+	 * Gets the surface to render video into while streaming
+	 *
+	 * @return Encoder input surface, or null without a video profile or before the encoder started
+	 */
+	public Surface getVideoSurface() {
+		return this.masterChannel.getVideoSurface();
+	}
+
+	/**
+	 * Publishes extra audio renditions next to the stream audio profile, applied on the next start.
+	 * Players switch between them by bandwidth, which requires a DASH (HTTP) destination.
+	 * This is an audio only ladder: a video track is still encoded and muxed once.
+	 *
+	 * @param profiles Profiles with the sample rate, channel count and frame size of the stream profile
+	 */
+	public void setRenditions(AudioProfile... profiles) {
+		this.masterChannel.setRenditions(profiles);
+	}
+
+	/**
+	 * Gets the frames, drops and CPU cost of each extra rendition
+	 *
+	 * @return Results of the current or last stream
+	 */
+	public List<Rendition.Stats> getRenditionStats() {
+		return this.masterChannel.getRenditionStats();
+	}
+
+	/**
+	 * Tunes the FFmpeg muxer and RTMP connection, applied on the next start
+	 *
+	 * @param options Stream options, such as StreamOptions.lowLatency()
+	 */
+	public void setStreamOptions(StreamOptions options) {
+		this.masterChannel.setStreamOptions(options);
+	}
+
+	/**
+	 * Embeds latency traces in the stream, applied on the next start.
+	 * Receivers can compare the capture wall clock in each onTextData tag with their own.
+	 *
+	 * @param interval Time between traces in ms, 0 disables tracing
+	 */
+	public void setTracing(long interval) {
+		this.masterChannel.setTracing(interval);
+	}
+
+	/**
+	 * Enables the uplink probe that picks the starting audio profile.
+	 * The probe runs on a background thread before publishing begins.
+	 *
+	 * @param duration Measuring window in ms, 0 disables probing
+	 * @param margin   Fraction of the measured capacity the stream may use
+	 * @param profiles Candidate profiles to pick from
+	 */
+	public synchronized void setProbe(long duration, double margin, AudioProfile... profiles) {
+		if (duration > 0 && profiles.length == 0) {
+			throw new IllegalArgumentException("Probing requires at least one candidate profile");
+		}
+
+		this.probeDuration = duration;
+		this.probeMargin = margin;
+		this.probeProfiles = profiles.clone();
 	}
 
 	/**
 	 * Start the stream
 	 */
-	public void start() {
-		try {
-			this.masterChannel.startEncoder();
-		} catch (IOException e) {
-			Log.e("RtmpStream", e.getMessage());
+	public synchronized void start() {
+		if (this.streaming || this.starter != null) {
+			return;
 		}
+
+		if (this.probeDuration <= 0) {
+			this.startEncoder(this.audioProfile);
+			return;
+		}
+
+		this.probe = BandwidthProbe.forUrl(this.destination, this.probeDuration);
+		this.starter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				RtmpStream.this.probeAndStart(Thread.currentThread());
+			}
+		}, "RtmpStreamProbe");
+		this.starter.start();
 	}
 
 	/**
 	 * Stop the stream
 	 */
-	public void stop() {
-		this.masterChannel.stopEncoder();
+	public synchronized void stop() {
+		if (this.probe != null) {
+			this.probe.cancel();
+			this.probe = null;
+		}
+
+		this.starter = null;
+
+		if (this.streaming) {
+			this.masterChannel.stopEncoder();
+			this.streaming = false;
+		}
+	}
+
+	/**
+	 * Replaces live capture with a pre-encoded file until it ends, then returns to live capture.
+	 * The file must match the stream audio profile (AAC object type, sample rate and channels).
+	 * ADTS headers cannot signal HE-AAC, so only FLV files can be restreamed into HE-AAC profiles.
+	 *
+	 * @param file  ADTS (.aac) or FLV (.flv) file
+	 * @param paced Send packets at their timestamps, or as fast as possible for benchmarking
+	 * @throws IOException If the file cannot be read
+	 */
+	public synchronized void restream(File file, boolean paced) throws IOException {
+		if (!this.streaming) {
+			throw new IllegalStateException("Stream is not started");
+		}
+
+		this.masterChannel.splice(new MappedFileSource(file, paced));
+	}
+
+	/**
+	 * Cuts a running restream short and returns to live capture
+	 */
+	public synchronized void resumeLive() throws IOException {
+		if (this.streaming) {
+			this.masterChannel.splice(null);
+		}
+	}
+
+	/**
+	 * Measures the uplink and starts the encoder with the profile that fits it
+	 *
+	 * @param thread Starter thread, used to detect a stop during probing
+	 */
+	private void probeAndStart(Thread thread) {
+		final BandwidthProbe probe;
+		final AudioProfile[] profiles;
+		final double margin;
+		AudioProfile profile;
+
+		// Settings may change while probing, use the ones the probe was started with
+		synchronized (this) {
+			probe = this.probe;
+			profiles = this.probeProfiles;
+			margin = this.probeMargin;
+			profile = this.audioProfile;
+		}
+
+		try {
+			if (probe != null) {
+				final BandwidthProbe.Result result = probe.run();
+
+				profile = result.selectProfile(profiles, margin);
+				Log.i(TAG, "Probe " + result + ", starting with " + profile);
+			}
+		} catch (IOException e) {
+			Log.w(TAG, "Bandwidth probe failed, starting with " + profile, e);
+		}
+
+		synchronized (this) {
+			if (this.starter == thread) {
+				this.starter = null;
+				this.probe = null;
+				this.startEncoder(profile);
+			}
+		}
+	}
+
+	private void startEncoder(AudioProfile profile) {
+		// Flag before starting so that a partially started channel is still released on stop
+		this.streaming = true;
+
+		try {
+			this.masterChannel.setAudioProfile(profile);
+			this.masterChannel.setDestination(this.destination);
+			this.masterChannel.startEncoder();
+		} catch (IOException e) {
+			Log.e(TAG, e.getMessage());
+		}
 	}
 }
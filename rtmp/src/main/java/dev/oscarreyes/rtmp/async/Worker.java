@@ -209,4 +209,32 @@ public abstract class Worker implements Runnable {
 
 		this.stop(null);
 	}
+
+	/**
+	 * Stops worker execution and waits for the running cycle to finish
+	 *
+	 * @param timeout Longest wait in ms
+	 * @return False if the thread was still running after the timeout
+	 */
+	public final boolean stopAndJoin(long timeout) {
+		final Thread thread;
+
+		synchronized (this) {
+			thread = this.worker;
+		}
+
+		this.stop();
+
+		if (thread == null || thread == Thread.currentThread()) {
+			return true;
+		}
+
+		try {
+			thread.join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return !thread.isAlive();
+	}
 }
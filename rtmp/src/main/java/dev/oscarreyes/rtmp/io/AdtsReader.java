@@ -0,0 +1,155 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits an AAC ADTS stream into raw AAC frames.
+ * Frames are slices of the source buffer, so a memory-mapped file is never copied.
+ * <p>
+ * ADTS headers can only signal object types 1 to 4, so HE-AAC files read as AAC-LC at the core
+ * sample rate. ADTS frames holding several raw data blocks are split into one frame per block,
+ * which needs the block positions of a CRC protected header.
+ */
+public class AdtsReader implements PacketReader {
+	private static final int HEADER_SIZE = 7;
+	private static final int CRC_SIZE = 2;
+	private static final int SAMPLES_PER_BLOCK = 1024;
+
+	private final ByteBuffer buffer;
+	private final AudioSpecificConfig config;
+
+	/**
+	 * Number of raw data blocks read so far, drives the timestamps
+	 */
+	private long blocks;
+
+	/**
+	 * Absolute bounds of the raw data blocks left in the current multi-block ADTS frame
+	 */
+	private int[] blockStarts = new int[0];
+	private int[] blockEnds = new int[0];
+	private int nextBlock;
+
+	public AdtsReader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.duplicate();
+		this.config = this.readConfig(this.buffer.position());
+	}
+
+	@Override
+	public AudioSpecificConfig getConfig() {
+		return this.config;
+	}
+
+	@Override
+	public boolean next(Frame frame) throws IOException {
+		if (this.nextBlock < this.blockStarts.length) {
+			this.readBlock(frame, this.blockStarts[this.nextBlock], this.blockEnds[this.nextBlock]);
+			this.nextBlock++;
+			return true;
+		}
+
+		final int position = this.buffer.position();
+
+		if (this.buffer.remaining() < HEADER_SIZE) {
+			return false;
+		}
+
+		this.checkSync(position);
+
+		final boolean crc = (this.buffer.get(position + 1) & 0x01) == 0;
+		final int headerSize = crc ? HEADER_SIZE + CRC_SIZE : HEADER_SIZE;
+		final int frameLength = ((this.buffer.get(position + 3) & 0x03) << 11)
+			| ((this.buffer.get(position + 4) & 0xFF) << 3)
+			| ((this.buffer.get(position + 5) & 0xFF) >> 5);
+		final int frameBlocks = (this.buffer.get(position + 6) & 0x03) + 1;
+
+		if (frameLength < headerSize || frameLength > this.buffer.remaining()) {
+			throw new IOException("Truncated ADTS frame at " + position);
+		}
+
+		this.buffer.position(position + frameLength);
+
+		if (frameBlocks == 1) {
+			this.readBlock(frame, position + headerSize, position + frameLength);
+			return true;
+		}
+
+		this.splitBlocks(position, frameLength, frameBlocks, crc);
+		this.readBlock(frame, this.blockStarts[0], this.blockEnds[0]);
+		this.nextBlock = 1;
+
+		return true;
+	}
+
+	/**
+	 * Fills a frame with one raw data block
+	 */
+	private void readBlock(Frame frame, int start, int end) {
+		final ByteBuffer payload = this.buffer.duplicate();
+
+		payload.limit(end);
+		payload.position(start);
+
+		frame.buffer = payload.slice();
+		frame.data = null;
+		frame.size = end - start;
+		frame.flags = 0;
+		frame.timestamp = this.blocks * SAMPLES_PER_BLOCK * 1000000L / this.config.getSampleRate();
+
+		this.blocks++;
+	}
+
+	/**
+	 * Locates the raw data blocks of a frame from the positions in its header.
+	 * Each block is followed by its own CRC, which is left out of the packet.
+	 */
+	private void splitBlocks(int position, int frameLength, int frameBlocks, boolean crc) throws IOException {
+		if (!crc) {
+			throw new IOException("ADTS frame at " + position + " has " + frameBlocks + " raw data blocks without their positions");
+		}
+
+		// Header, the position of every block after the first and the header CRC
+		final int first = position + HEADER_SIZE + (frameBlocks - 1) * 2 + CRC_SIZE;
+		final int end = position + frameLength;
+
+		this.blockStarts = new int[frameBlocks];
+		this.blockEnds = new int[frameBlocks];
+		this.blockStarts[0] = first;
+
+		for (int i = 1; i < frameBlocks; i++) {
+			// Offsets count from the start of the first block
+			final int offset = ((this.buffer.get(position + HEADER_SIZE + (i - 1) * 2) & 0xFF) << 8)
+				| (this.buffer.get(position + HEADER_SIZE + (i - 1) * 2 + 1) & 0xFF);
+
+			this.blockStarts[i] = first + offset;
+		}
+
+		for (int i = 0; i < frameBlocks; i++) {
+			this.blockEnds[i] = (i + 1 < frameBlocks ? this.blockStarts[i + 1] : end) - CRC_SIZE;
+
+			if (this.blockEnds[i] <= this.blockStarts[i] || this.blockEnds[i] > end) {
+				throw new IOException("Invalid raw data block position in ADTS frame at " + position);
+			}
+		}
+	}
+
+	private AudioSpecificConfig readConfig(int position) throws IOException {
+		if (this.buffer.limit() - position < HEADER_SIZE) {
+			throw new IOException("No ADTS header found");
+		}
+
+		this.checkSync(position);
+
+		final int b2 = this.buffer.get(position + 2) & 0xFF;
+		final int b3 = this.buffer.get(position + 3) & 0xFF;
+
+		return new AudioSpecificConfig((b2 >> 6) + 1, (b2 >> 2) & 0x0F, ((b2 & 0x01) << 2) | (b3 >> 6));
+	}
+
+	private void checkSync(int position) throws IOException {
+		if ((this.buffer.get(position) & 0xFF) != 0xFF || (this.buffer.get(position + 1) & 0xF0) != 0xF0) {
+			throw new IOException("Lost ADTS sync at " + position);
+		}
+	}
+}
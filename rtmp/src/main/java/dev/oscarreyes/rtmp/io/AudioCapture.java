@@ -0,0 +1,93 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+
+/**
+ * Microphone capture, owned by a single encoder or shared by the encoders of several renditions
+ */
+public class AudioCapture {
+	private final int audioSource;
+	private final int sampleRate;
+	private final int channelMask;
+	private final int bufferSize;
+
+	private AudioRecord audioRecord;
+
+	/**
+	 * Gets the channel mask used to capture audio for a profile
+	 * @param profile Audio encoding profile
+	 * @return AudioFormat input channel mask
+	 */
+	private static int getChannelMask(AudioProfile profile) {
+		if (profile.getChannelCount() == AudioProfile.CHANNEL_MONO) {
+			return AudioFormat.CHANNEL_IN_MONO;
+		}
+
+		return AudioFormat.CHANNEL_IN_STEREO;
+	}
+
+	/**
+	 * Gets the minimum size of the audio pulse-code modulation buffer for a profile
+	 * @param profile Audio encoding profile
+	 * @return Buffer size in bytes
+	 */
+	static int getBufferSize(AudioProfile profile) {
+		return AudioRecord.getMinBufferSize(profile.getSampleRate(), getChannelMask(profile), AudioFormat.ENCODING_PCM_16BIT);
+	}
+
+	/**
+	 * @param audioSource MediaRecorder.AudioSource to record from
+	 * @param profile     Profile giving the sample rate and channel count
+	 */
+	public AudioCapture(int audioSource, AudioProfile profile) {
+		this.audioSource = audioSource;
+		this.sampleRate = profile.getSampleRate();
+		this.channelMask = getChannelMask(profile);
+		this.bufferSize = getBufferSize(profile);
+	}
+
+	/**
+	 * Gets the size of one read
+	 * @return Size in bytes
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Starts recording
+	 */
+	public void start() {
+		this.audioRecord = new AudioRecord(
+			this.audioSource, this.sampleRate,
+			this.channelMask,
+			AudioFormat.ENCODING_PCM_16BIT,
+			this.bufferSize
+		);
+
+		this.audioRecord.startRecording();
+	}
+
+	/**
+	 * Stops recording and releases the source
+	 */
+	public void stop() {
+		if (this.audioRecord != null) {
+			this.audioRecord.stop();
+			this.audioRecord.setRecordPositionUpdateListener(null);
+			this.audioRecord.release();
+
+			this.audioRecord = null;
+		}
+	}
+
+	/**
+	 * Reads the next PCM chunk, blocking until it is available
+	 * @param pcm Buffer of at least {@link #getBufferSize()} bytes
+	 * @return Bytes read, or a negative AudioRecord error
+	 */
+	public int read(byte[] pcm) {
+		return this.audioRecord.read(pcm, 0, this.bufferSize);
+	}
+}
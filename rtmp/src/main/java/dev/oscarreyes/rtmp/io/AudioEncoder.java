@@ -1,75 +1,100 @@
 package dev.oscarreyes.rtmp.io;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
 import android.media.MediaCodec;
-import android.media.MediaCodecInfo;
-import android.media.MediaCodecList;
 import android.media.MediaFormat;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-public class AudioEncoder {
+public class AudioEncoder implements FrameSource {
 	private static final String CODEC = MediaFormat.MIMETYPE_AUDIO_AAC;
-	private static final int SAMPLE_RATE = 44100;
-	private static final int BITRATE = 128 * 1000; // 128 kbps
-	private static final int CHANNEL_STEREO = 2;
-	private static final int PCM_BUFFER_SIZE = AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_STEREO, AudioFormat.ENCODING_PCM_16BIT); // Audio pulse-code modulation waves
 
-	private int audioSource;
-	private AudioRecord audioRecord;
+	private final AudioCapture capture;
+	private final boolean ownsCapture;
+	private final AudioProfile profile;
 	private MediaFormat mediaFormat;
 	private MediaCodec encoder;
+	private String codecName;
 
-	private final byte[] pcmBuffer; // Pulse-code modulation buffer data
+	private final byte[] pcmBuffer; // Pulse-code modulation buffer data, only used with an owned capture
 
 	/**
 	 * Gets the audio media format for AAC
+	 * @param profile Audio encoding profile
 	 * @return Audio media format
 	 */
-	public static MediaFormat getMediaFormat() {
-		MediaFormat mediaFormat = MediaFormat.createAudioFormat(CODEC, SAMPLE_RATE, CHANNEL_STEREO);
+	public static MediaFormat getMediaFormat(AudioProfile profile) {
+		MediaFormat mediaFormat = MediaFormat.createAudioFormat(CODEC, profile.getSampleRate(), profile.getChannelCount());
 
-		mediaFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
-		mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, BITRATE);
-		mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, PCM_BUFFER_SIZE);
+		mediaFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, profile.getAac().objectType);
+		mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, profile.getBitrate());
+		mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, AudioCapture.getBufferSize(profile));
 
 		return mediaFormat;
 	}
 
-	public AudioEncoder(int audioSource) {
-		this.audioSource = audioSource;
-		this.mediaFormat = getMediaFormat();
-		this.pcmBuffer = new byte[PCM_BUFFER_SIZE];
+	public AudioEncoder(int audioSource, AudioProfile profile) {
+		this(new AudioCapture(audioSource, profile), profile, true);
 	}
 
 	/**
-	 * Gets the codec name for the current audio media format
+	 * Creates an encoder fed from a capture shared with other encoders through {@link #queueAudio(Frame, long)}
+	 * @param capture Shared capture, started and stopped by its owner
+	 * @param profile Audio encoding profile, with the sample rate and channel count of the capture
+	 */
+	public AudioEncoder(AudioCapture capture, AudioProfile profile) {
+		this(capture, profile, false);
+	}
+
+	private AudioEncoder(AudioCapture capture, AudioProfile profile, boolean ownsCapture) {
+		this.capture = capture;
+		this.ownsCapture = ownsCapture;
+		this.profile = profile;
+		this.mediaFormat = getMediaFormat(profile);
+		this.pcmBuffer = ownsCapture ? new byte[capture.getBufferSize()] : null;
+	}
+
+	@Override
+	public MediaFormat getFormat() {
+		return this.mediaFormat;
+	}
+
+	/**
+	 * Selects the codec for the current audio media format
 	 * @return Name of the codec
 	 */
-	private String getCodecName() {
-		final MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+	private String selectCodecName() {
+		return CodecRegistry.getInstance().selectEncoder(this.mediaFormat);
+	}
 
-		return codecList.findEncoderForFormat(mediaFormat);
+	/**
+	 * Gets the name of the codec the encoder was last started with
+	 * @return Name of the codec, or null before the first start
+	 */
+	public String getCodecName() {
+		return this.codecName;
 	}
 
 	/**
 	 * Starts the audio source and encoder with the configured media format
 	 * @throws IOException
 	 */
+	@Override
 	public void start() throws IOException {
-		this.audioRecord = new AudioRecord(
-			this.audioSource, SAMPLE_RATE,
-			AudioFormat.CHANNEL_IN_STEREO,
-			AudioFormat.ENCODING_PCM_16BIT,
-			PCM_BUFFER_SIZE
-		);
+		// Resolved before recording starts, the first lookup of a format only starts its benchmark in the background
+		final String codecName = this.selectCodecName();
+
+		if (codecName == null) {
+			throw new IOException("No AAC encoder supports " + this.profile);
+		}
 
-		this.audioRecord.startRecording();
+		if (this.ownsCapture) {
+			this.capture.start();
+		}
 
 		try {
-			this.encoder = MediaCodec.createByCodecName(this.getCodecName());
+			this.encoder = MediaCodec.createByCodecName(codecName);
+			this.codecName = codecName;
 
 			this.encoder.configure(this.mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
 			this.encoder.start();
@@ -81,6 +106,7 @@ public class AudioEncoder {
 	/**
 	 * Stops the encoder and audio source
 	 */
+	@Override
 	public void stop() {
 		if (this.encoder != null) {
 			this.encoder.stop();
@@ -89,24 +115,25 @@ public class AudioEncoder {
 			this.encoder = null;
 		}
 
-		if (this.audioRecord != null) {
-			this.audioRecord.stop();
-			this.audioRecord.setRecordPositionUpdateListener(null);
-			this.audioRecord.release();
-
-			this.audioRecord = null;
+		if (this.ownsCapture) {
+			this.capture.stop();
 		}
 	}
 
 	/**
 	 * Captures and queues the raw audio buffer into the encoder
+	 * @throws IllegalStateException If the capture is shared, its owner feeds the encoder through queueAudio
 	 */
 	public void captureAudio() {
+		if (!this.ownsCapture) {
+			throw new IllegalStateException("Encoder of a shared capture is fed through queueAudio by the capture owner");
+		}
+
 		final int inputBufferIndex = this.encoder.dequeueInputBuffer(0);
 
 		if (inputBufferIndex >= 0) {
 			long timeSystem = System.nanoTime() / 1000; // Publish time system
-			int size = this.audioRecord.read(this.pcmBuffer, 0, this.pcmBuffer.length);
+			int size = this.capture.read(this.pcmBuffer);
 
 			if (size > 0) {
 				ByteBuffer byteBuffer = this.encoder.getInputBuffer(inputBufferIndex);
@@ -118,6 +145,29 @@ public class AudioEncoder {
 		}
 	}
 
+	/**
+	 * Queues PCM read from a shared capture into the encoder.
+	 * The PCM is only read, so the same frame can be queued into several encoders from different threads.
+	 * @param pcm Frame holding the PCM data and its capture timestamp
+	 * @param timeoutUs Longest time to wait for a free input buffer
+	 * @return False if no input buffer became free and the PCM was dropped
+	 */
+	public boolean queueAudio(Frame pcm, long timeoutUs) {
+		final int inputBufferIndex = this.encoder.dequeueInputBuffer(timeoutUs);
+
+		if (inputBufferIndex < 0) {
+			return false;
+		}
+
+		final ByteBuffer byteBuffer = this.encoder.getInputBuffer(inputBufferIndex);
+
+		byteBuffer.put(pcm.data, 0, pcm.size);
+
+		this.encoder.queueInputBuffer(inputBufferIndex, 0, pcm.size, pcm.timestamp, 0);
+
+		return true;
+	}
+
 	/**
 	 * Dequeues and obtains the newest encoded audio data from the encoder
 	 * @return Frame object with data information
@@ -142,4 +192,17 @@ public class AudioEncoder {
 
 		return frame;
 	}
+
+	/**
+	 * Captures pending audio and dequeues the next encoded frame.
+	 * Blocks on the capture until a full PCM chunk is read when an encoder input buffer is free.
+	 * @return Frame object with data information
+	 * @throws IllegalStateException If the capture is shared
+	 */
+	@Override
+	public Frame read() {
+		this.captureAudio();
+
+		return this.getAudioFrame();
+	}
 }
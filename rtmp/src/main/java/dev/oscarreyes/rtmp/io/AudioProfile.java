@@ -0,0 +1,185 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodecInfo;
+
+public class AudioProfile {
+	/**
+	 * Supported AAC object types
+	 */
+	public enum Aac {
+		LC(MediaCodecInfo.CodecProfileLevel.AACObjectLC, 1024),
+		HE_V1(MediaCodecInfo.CodecProfileLevel.AACObjectHE, 2048),
+		HE_V2(MediaCodecInfo.CodecProfileLevel.AACObjectHE_PS, 2048);
+
+		/**
+		 * MPEG-4 audio object type, as used by MediaCodec
+		 */
+		public final int objectType;
+
+		/**
+		 * Number of PCM samples per channel covered by one encoded frame
+		 */
+		public final int frameSamples;
+
+		Aac(int objectType, int frameSamples) {
+			this.objectType = objectType;
+			this.frameSamples = frameSamples;
+		}
+
+		/**
+		 * Gets the AAC profile for a MediaCodec object type
+		 *
+		 * @param objectType MPEG-4 audio object type
+		 * @return AAC profile
+		 */
+		public static Aac fromObjectType(int objectType) {
+			for (Aac aac : values()) {
+				if (aac.objectType == objectType) {
+					return aac;
+				}
+			}
+
+			throw new IllegalArgumentException("Unsupported AAC object type " + objectType);
+		}
+	}
+
+	public static final int CHANNEL_MONO = 1;
+	public static final int CHANNEL_STEREO = 2;
+	public static final int MIN_BITRATE = 24 * 1000; // 24 kbps
+
+	private static final int[] SAMPLE_RATES = {16000, 32000, 44100, 48000};
+
+	/**
+	 * Music quality profile, AAC-LC 44.1 kHz stereo at 128 kbps
+	 */
+	public static final AudioProfile DEFAULT = new AudioProfile(Aac.LC, 44100, CHANNEL_STEREO, 128 * 1000);
+
+	/**
+	 * Voice profile for constrained uplinks, HE-AAC 32 kHz mono at 32 kbps
+	 */
+	public static final AudioProfile VOICE = new AudioProfile(Aac.HE_V1, 32000, CHANNEL_MONO, 32 * 1000);
+
+	private final Aac aac;
+	private final int sampleRate;
+	private final int channelCount;
+	private final int bitrate;
+
+	/**
+	 * Creates an audio encoding profile
+	 *
+	 * @param aac          AAC profile
+	 * @param sampleRate   Sample rate in Hz (16000, 32000, 44100 or 48000)
+	 * @param channelCount Number of channels (1 or 2)
+	 * @param bitrate      Bitrate in bps, at least 24 kbps
+	 */
+	public AudioProfile(Aac aac, int sampleRate, int channelCount, int bitrate) {
+		if (aac == null) {
+			throw new IllegalArgumentException("AAC profile is required");
+		}
+
+		if (!isSupportedSampleRate(sampleRate)) {
+			throw new IllegalArgumentException("Unsupported sample rate " + sampleRate);
+		}
+
+		if (channelCount != CHANNEL_MONO && channelCount != CHANNEL_STEREO) {
+			throw new IllegalArgumentException("Unsupported channel count " + channelCount);
+		}
+
+		// Parametric stereo rebuilds two channels from a mono core, it has no meaning for a mono source
+		if (aac == Aac.HE_V2 && channelCount != CHANNEL_STEREO) {
+			throw new IllegalArgumentException("HE-AAC v2 requires a stereo source");
+		}
+
+		if (bitrate < MIN_BITRATE) {
+			throw new IllegalArgumentException("Bitrate must be at least " + MIN_BITRATE + " bps");
+		}
+
+		this.aac = aac;
+		this.sampleRate = sampleRate;
+		this.channelCount = channelCount;
+		this.bitrate = bitrate;
+	}
+
+	private static boolean isSupportedSampleRate(int sampleRate) {
+		for (int supported : SAMPLE_RATES) {
+			if (supported == sampleRate) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public Aac getAac() {
+		return this.aac;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public int getChannelCount() {
+		return this.channelCount;
+	}
+
+	public int getBitrate() {
+		return this.bitrate;
+	}
+
+	/**
+	 * Gets the duration of one encoded frame
+	 *
+	 * @return Frame duration in microseconds
+	 */
+	public long getFrameDurationUs() {
+		return this.aac.frameSamples * 1000000L / this.sampleRate;
+	}
+
+	/**
+	 * Rounds a duration to a whole number of encoded frames
+	 *
+	 * @param durationUs Duration in microseconds
+	 * @return Duration of at least one frame, in microseconds
+	 */
+	public long alignDuration(long durationUs) {
+		final long frames = Math.max(1, Math.round((double) durationUs * this.sampleRate / (this.aac.frameSamples * 1000000L)));
+
+		return frames * this.aac.frameSamples * 1000000L / this.sampleRate;
+	}
+
+	/**
+	 * Checks whether another profile can be encoded from the same capture with frames on the same
+	 * timestamps, so that renditions of both are segmented at the same boundaries
+	 *
+	 * @param other Profile to compare with
+	 */
+	public boolean isFrameAligned(AudioProfile other) {
+		return this.sampleRate == other.sampleRate
+			&& this.channelCount == other.channelCount
+			&& this.aac.frameSamples == other.aac.frameSamples;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof AudioProfile)) {
+			return false;
+		}
+
+		final AudioProfile profile = (AudioProfile) other;
+
+		return this.aac == profile.aac
+			&& this.sampleRate == profile.sampleRate
+			&& this.channelCount == profile.channelCount
+			&& this.bitrate == profile.bitrate;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((this.aac.hashCode() * 31 + this.sampleRate) * 31 + this.channelCount) * 31 + this.bitrate;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %d Hz %dch %d bps", this.aac, this.sampleRate, this.channelCount, this.bitrate);
+	}
+}
@@ -0,0 +1,190 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The MPEG-4 AudioSpecificConfig, as stored in FLV sequence headers and MP4 esds boxes.
+ * <p>
+ * HE-AAC is kept in its explicit form: the object type is SBR (5) or PS (29), the sampling
+ * frequency is the one of the AAC-LC core and the extension frequency the one of the output.
+ * Configs that signal SBR through the backward compatible sync extension are normalized to it.
+ */
+public class AudioSpecificConfig {
+	public static final int OBJECT_TYPE_LC = 2;
+	public static final int OBJECT_TYPE_SBR = 5;
+	public static final int OBJECT_TYPE_PS = 29;
+
+	private static final int[] SAMPLE_RATES = {
+		96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+	};
+
+	private static final int SYNC_EXTENSION_SBR = 0x2B7;
+	private static final int SYNC_EXTENSION_PS = 0x548;
+
+	public final int objectType;
+	public final int frequencyIndex;
+	public final int channelCount;
+
+	/**
+	 * Sampling frequency index of the SBR output, or -1 without SBR
+	 */
+	public final int extensionFrequencyIndex;
+
+	public AudioSpecificConfig(int objectType, int frequencyIndex, int channelCount) throws IOException {
+		this(objectType, frequencyIndex, channelCount, -1);
+	}
+
+	public AudioSpecificConfig(int objectType, int frequencyIndex, int channelCount, int extensionFrequencyIndex) throws IOException {
+		if (objectType < 1 || objectType > 30) {
+			throw new IOException("Unsupported audio object type " + objectType);
+		}
+
+		if (frequencyIndex >= SAMPLE_RATES.length) {
+			throw new IOException("Unsupported sampling frequency index " + frequencyIndex);
+		}
+
+		if (channelCount < 1 || channelCount > 2) {
+			throw new IOException("Unsupported channel configuration " + channelCount);
+		}
+
+		final boolean sbr = objectType == OBJECT_TYPE_SBR || objectType == OBJECT_TYPE_PS;
+
+		if (sbr != extensionFrequencyIndex >= 0 || extensionFrequencyIndex >= SAMPLE_RATES.length) {
+			throw new IOException("Unsupported extension sampling frequency index " + extensionFrequencyIndex + " for object type " + objectType);
+		}
+
+		this.objectType = objectType;
+		this.frequencyIndex = frequencyIndex;
+		this.channelCount = channelCount;
+		this.extensionFrequencyIndex = extensionFrequencyIndex;
+	}
+
+	/**
+	 * Parses a config at a buffer offset, without moving the buffer position.
+	 * The config ends at the buffer limit.
+	 * @param buffer Buffer holding the config
+	 * @param offset Absolute offset of the config
+	 * @return Parsed config
+	 * @throws IOException If the config is truncated or unsupported
+	 */
+	public static AudioSpecificConfig parse(ByteBuffer buffer, int offset) throws IOException {
+		if (buffer.limit() - offset < 2) {
+			throw new IOException("Truncated AudioSpecificConfig");
+		}
+
+		final Bits bits = new Bits(buffer, offset);
+		int objectType = bits.read(5);
+		final int frequencyIndex = bits.read(4);
+		final int channelCount = bits.read(4);
+		int extensionFrequencyIndex = -1;
+
+		if (objectType == 31 || frequencyIndex == 15) {
+			throw new IOException("Unsupported escaped AudioSpecificConfig");
+		}
+
+		if (objectType == OBJECT_TYPE_SBR || objectType == OBJECT_TYPE_PS) {
+			// Explicit hierarchical signalling, the AAC core follows the extension frequency
+			extensionFrequencyIndex = bits.read(4);
+
+			final int coreType = bits.read(5);
+
+			if (coreType != OBJECT_TYPE_LC) {
+				throw new IOException("Unsupported HE-AAC core object type " + coreType);
+			}
+		} else if (objectType == OBJECT_TYPE_LC) {
+			// GASpecificConfig: frame length, core coder (with its delay) and extension flags
+			bits.read(1);
+			if (bits.read(1) == 1) {
+				bits.read(14);
+			}
+			bits.read(1);
+
+			// Backward compatible signalling in a sync extension, ignored by plain AAC-LC decoders
+			if (bits.available() >= 16 && bits.read(11) == SYNC_EXTENSION_SBR
+				&& bits.read(5) == OBJECT_TYPE_SBR && bits.read(1) == 1) {
+				extensionFrequencyIndex = bits.read(4);
+				objectType = OBJECT_TYPE_SBR;
+
+				if (bits.available() >= 12 && bits.read(11) == SYNC_EXTENSION_PS && bits.read(1) == 1) {
+					objectType = OBJECT_TYPE_PS;
+				}
+			}
+		}
+
+		return new AudioSpecificConfig(objectType, frequencyIndex, channelCount, extensionFrequencyIndex);
+	}
+
+	/**
+	 * Gets the sampling frequency of the AAC core
+	 */
+	public int getSampleRate() {
+		return SAMPLE_RATES[this.frequencyIndex];
+	}
+
+	/**
+	 * Gets the sampling frequency a decoder outputs, doubled by SBR
+	 */
+	public int getOutputSampleRate() {
+		return SAMPLE_RATES[this.extensionFrequencyIndex >= 0 ? this.extensionFrequencyIndex : this.frequencyIndex];
+	}
+
+	/**
+	 * Gets the number of channels a decoder outputs, parametric stereo rebuilds two from a mono core
+	 */
+	public int getOutputChannelCount() {
+		return this.objectType == OBJECT_TYPE_PS ? 2 : this.channelCount;
+	}
+
+	/**
+	 * Encodes the config, HE-AAC with explicit hierarchical signalling
+	 * @return Two byte AudioSpecificConfig, or four bytes for HE-AAC
+	 */
+	public byte[] toBytes() {
+		if (this.extensionFrequencyIndex < 0) {
+			final int config = (this.objectType << 11) | (this.frequencyIndex << 7) | (this.channelCount << 3);
+
+			return new byte[]{(byte) (config >> 8), (byte) config};
+		}
+
+		final int config = (this.objectType << 27) | (this.frequencyIndex << 23) | (this.channelCount << 19)
+			| (this.extensionFrequencyIndex << 15) | (OBJECT_TYPE_LC << 10);
+
+		return new byte[]{(byte) (config >> 24), (byte) (config >> 16), (byte) (config >> 8), (byte) config};
+	}
+
+	/**
+	 * Reads the config most significant bit first
+	 */
+	private static class Bits {
+		private final ByteBuffer buffer;
+		private final int end;
+		private int position;
+
+		Bits(ByteBuffer buffer, int offset) {
+			this.buffer = buffer;
+			this.end = buffer.limit() * 8;
+			this.position = offset * 8;
+		}
+
+		int available() {
+			return this.end - this.position;
+		}
+
+		int read(int count) throws IOException {
+			int value = 0;
+
+			if (count > this.available()) {
+				throw new IOException("Truncated AudioSpecificConfig");
+			}
+
+			for (int i = 0; i < count; i++, this.position++) {
+				final int bit = (this.buffer.get(this.position >> 3) >> (7 - (this.position & 7))) & 1;
+
+				value = (value << 1) | bit;
+			}
+
+			return value;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Encodes a short synthetic clip to score an encoder for a media format.
+ * <p>
+ * Input is noise, the worst case for the encoder, fed at a multiple of real time so a slow codec
+ * shows up as growing latency. CPU time is that of the whole process, which includes software
+ * codecs running in process but not work done by the media server or hardware blocks. It also
+ * includes any other work of the process, so the registry only runs benchmarks while no stream is active.
+ */
+class CodecBenchmark {
+	private static final String TAG = CodecBenchmark.class.getSimpleName();
+
+	private static final long DURATION_US = 1000000;
+	private static final int SPEED = 4;
+	private static final long DEADLINE_NS = 5000000000L;
+	private static final long DEQUEUE_TIMEOUT_US = 1000;
+	private static final int AUDIO_FRAME_SAMPLES = 1024;
+	private static final int CONTENT_SHIFT = 4096;
+
+	private CodecBenchmark() {
+	}
+
+	/**
+	 * Scores an encoder
+	 *
+	 * @param name     Codec name
+	 * @param hardware Whether the codec is hardware accelerated
+	 * @param format   Format the encoder would be configured with
+	 * @return Measured score, or a failed score if the codec cannot encode the format
+	 */
+	static CodecScore run(String name, boolean hardware, MediaFormat format) {
+		MediaCodec codec = null;
+
+		try {
+			codec = MediaCodec.createByCodecName(name);
+			codec.configure(getInputFormat(format), null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+			codec.start();
+
+			return measure(codec, name, hardware, format);
+		} catch (IOException | RuntimeException e) {
+			Log.w(TAG, "Benchmark of " + name + " failed: " + e.getMessage());
+
+			return CodecScore.failed(name, hardware);
+		} finally {
+			if (codec != null) {
+				try {
+					codec.stop();
+				} catch (IllegalStateException ignored) {
+				}
+
+				codec.release();
+			}
+		}
+	}
+
+	/**
+	 * Copies the encoding parameters into a format fed with byte buffers.
+	 * Surface input needs a GL context, raw frames exercise the same encoder without one.
+	 */
+	private static MediaFormat getInputFormat(MediaFormat format) {
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		final MediaFormat input;
+
+		if (isAudio(format)) {
+			input = MediaFormat.createAudioFormat(mime,
+				format.getInteger(MediaFormat.KEY_SAMPLE_RATE), format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+		} else {
+			input = MediaFormat.createVideoFormat(mime,
+				format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT));
+			input.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+		}
+
+		final String[] keys = {
+			MediaFormat.KEY_BIT_RATE, MediaFormat.KEY_AAC_PROFILE, MediaFormat.KEY_MAX_INPUT_SIZE,
+			MediaFormat.KEY_FRAME_RATE, MediaFormat.KEY_I_FRAME_INTERVAL, MediaFormat.KEY_PROFILE, MediaFormat.KEY_LEVEL
+		};
+
+		for (String key : keys) {
+			if (format.containsKey(key)) {
+				input.setInteger(key, format.getInteger(key));
+			}
+		}
+
+		return input;
+	}
+
+	private static CodecScore measure(MediaCodec codec, String name, boolean hardware, MediaFormat format) throws IOException {
+		final long frameDuration;
+		final int frameSize;
+
+		if (isAudio(format)) {
+			frameDuration = AUDIO_FRAME_SAMPLES * 1000000L / format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			frameSize = AUDIO_FRAME_SAMPLES * format.getInteger(MediaFormat.KEY_CHANNEL_COUNT) * 2;
+		} else {
+			frameDuration = 1000000L / format.getInteger(MediaFormat.KEY_FRAME_RATE);
+			frameSize = format.getInteger(MediaFormat.KEY_WIDTH) * format.getInteger(MediaFormat.KEY_HEIGHT) * 3 / 2;
+		}
+
+		final int frames = (int) (DURATION_US / frameDuration);
+		final byte[] content = new byte[frameSize + CONTENT_SHIFT];
+		final long[] queued = new long[frames];
+		final long[] latencies = new long[frames * 2];
+		final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+
+		new Random(frames).nextBytes(content);
+
+		final long startNanos = System.nanoTime();
+		final long startCpu = Process.getElapsedCpuTime();
+		int inputs = 0;
+		int outputs = 0;
+
+		while (true) {
+			final long now = System.nanoTime();
+
+			if (now - startNanos > DEADLINE_NS) {
+				throw new IOException("Encoder did not finish in time");
+			}
+
+			if (inputs < frames && now >= startNanos + inputs * frameDuration * 1000 / SPEED) {
+				final int index = codec.dequeueInputBuffer(0);
+
+				if (index >= 0) {
+					final ByteBuffer buffer = codec.getInputBuffer(index);
+					final int size = Math.min(buffer.remaining(), frameSize);
+					final int flags = inputs == frames - 1 ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0;
+
+					// Shifting the noise keeps consecutive video frames from being identical
+					buffer.put(content, (inputs * 61) % CONTENT_SHIFT, size);
+
+					queued[inputs] = System.nanoTime();
+					codec.queueInputBuffer(index, 0, size, inputs * frameDuration, flags);
+					inputs++;
+				}
+			}
+
+			final int index = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+
+			if (index < 0) {
+				continue;
+			}
+
+			if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && info.size > 0 && outputs < latencies.length) {
+				// Outputs need not map one to one to inputs, attribute each to the newest input it can hold
+				final int frame = (int) Math.min(info.presentationTimeUs / frameDuration, inputs - 1);
+
+				latencies[outputs++] = (System.nanoTime() - queued[Math.max(0, frame)]) / 1000;
+			}
+
+			codec.releaseOutputBuffer(index, false);
+
+			if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+				break;
+			}
+		}
+
+		if (outputs == 0) {
+			throw new IOException("Encoder produced no output");
+		}
+
+		final long media = frames * frameDuration;
+		final long cpu = (Process.getElapsedCpuTime() - startCpu) * 1000000 / media;
+		final long wall = (System.nanoTime() - startNanos) / 1000 * 1000 / media;
+
+		Arrays.sort(latencies, 0, outputs);
+
+		return new CodecScore(name, hardware, latencies[outputs / 2], cpu, wall);
+	}
+
+	private static boolean isAudio(MediaFormat format) {
+		return format.getString(MediaFormat.KEY_MIME).startsWith("audio/");
+	}
+}
@@ -0,0 +1,116 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persists codec benchmark scores for one device build.
+ * <p>
+ * Scores are kept in a properties file keyed by media format and codec name. The file records
+ * the build it was measured on and is discarded when loaded on a different one, since an OS
+ * update can change codec implementations.
+ */
+public class CodecCache {
+	private static final String KEY_BUILD = "build";
+	private static final String SEPARATOR = "|";
+
+	private static final Logger log = Logger.getLogger(CodecCache.class.getSimpleName());
+
+	private final File file;
+	private final String build;
+	private final Properties scores = new Properties();
+
+	/**
+	 * @param file  Cache file, or null to keep scores in memory only
+	 * @param build Identifier of the device build, such as Build.FINGERPRINT
+	 */
+	public CodecCache(File file, String build) {
+		this.file = file;
+		this.build = build;
+	}
+
+	/**
+	 * Loads the cache file, keeping nothing if it is missing, unreadable or from another build
+	 */
+	public synchronized void load() {
+		this.scores.clear();
+
+		if (this.file == null || !this.file.isFile()) {
+			return;
+		}
+
+		final Properties loaded = new Properties();
+
+		try (InputStream in = new FileInputStream(this.file)) {
+			loaded.load(in);
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not read codec cache " + this.file, e);
+			return;
+		}
+
+		if (!this.build.equals(loaded.getProperty(KEY_BUILD))) {
+			log.info("Discarding codec scores measured on another build");
+			return;
+		}
+
+		loaded.remove(KEY_BUILD);
+		this.scores.putAll(loaded);
+	}
+
+	/**
+	 * Writes the cache file, replacing it atomically
+	 */
+	public synchronized void save() {
+		if (this.file == null) {
+			return;
+		}
+
+		final File temporary = new File(this.file.getPath() + ".tmp");
+		final Properties stored = new Properties();
+
+		stored.putAll(this.scores);
+		stored.setProperty(KEY_BUILD, this.build);
+
+		try (OutputStream out = new FileOutputStream(temporary)) {
+			stored.store(out, "Encoder benchmark scores");
+		} catch (IOException e) {
+			log.log(Level.WARNING, "Could not write codec cache " + this.file, e);
+			return;
+		}
+
+		if (!temporary.renameTo(this.file)) {
+			log.warning("Could not replace codec cache " + this.file);
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Gets a stored score
+	 *
+	 * @param format Media format key
+	 * @param codec  Codec name
+	 * @return The score, or null if the codec was not measured for the format
+	 */
+	public synchronized CodecScore get(String format, String codec) {
+		final String value = this.scores.getProperty(format + SEPARATOR + codec);
+
+		return value != null ? CodecScore.decode(codec, value) : null;
+	}
+
+	/**
+	 * Stores a score, call {@link #save()} to persist it
+	 *
+	 * @param format Media format key
+	 * @param score  Benchmark score
+	 */
+	public synchronized void put(String format, CodecScore score) {
+		this.scores.setProperty(format + SEPARATOR + score.name, score.encode());
+	}
+}
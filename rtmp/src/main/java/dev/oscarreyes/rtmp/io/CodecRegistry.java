@@ -0,0 +1,328 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Picks the encoder for a media format.
+ * <p>
+ * The first time a format is requested every capable encoder is benchmarked on a background
+ * thread, and the platform's choice is used until the scores are in. Benchmarks only run while
+ * no stream is active: they would compete with the live encoders, and the process CPU time they
+ * measure would include the stream's. Scores are stored in the cache directory, so later starts
+ * on the same device build only look them up. Without a cache directory scores last for the process.
+ */
+public class CodecRegistry {
+	private static final String TAG = CodecRegistry.class.getSimpleName();
+	private static final String CACHE_FILE = "codec-scores.properties";
+
+	private static CodecRegistry instance;
+
+	/**
+	 * Runs cache loads and benchmarks in order, off the caller's thread
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, TAG);
+
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+
+			return thread;
+		}
+	});
+
+	/**
+	 * Encoders of the device, enumerated by the executor on first use
+	 */
+	private final List<MediaCodecInfo> encoders = new ArrayList<>();
+
+	/**
+	 * Encoder chosen for each format key during this process, and the keys still being benchmarked
+	 */
+	private final Map<String, CodecScore> selected = new HashMap<>();
+	private final Set<String> pending = new HashSet<>();
+
+	/**
+	 * Formats waiting for the end of the active streams to be benchmarked
+	 */
+	private final Map<String, MediaFormat> deferred = new LinkedHashMap<>();
+
+	/**
+	 * Number of active streams, and of streams started so far to detect one starting during a benchmark
+	 */
+	private int activeStreams;
+	private long streamStarts;
+
+	private CodecCache cache = new CodecCache(null, Build.FINGERPRINT);
+
+	public static synchronized CodecRegistry getInstance() {
+		if (instance == null) {
+			instance = new CodecRegistry();
+		}
+
+		return instance;
+	}
+
+	private CodecRegistry() {
+	}
+
+	/**
+	 * Sets where benchmark scores are persisted and loads those measured on this build in the background
+	 *
+	 * @param directory Cache directory, such as Context.getCacheDir(), or null to keep scores in memory
+	 */
+	public void setCacheDirectory(final File directory) {
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				final CodecCache cache = new CodecCache(directory != null ? new File(directory, CACHE_FILE) : null, Build.FINGERPRINT);
+
+				cache.load();
+
+				synchronized (CodecRegistry.this) {
+					CodecRegistry.this.cache = cache;
+					CodecRegistry.this.selected.clear();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Holds benchmarks back while a stream runs, call {@link #streamStopped()} once it ends
+	 */
+	public synchronized void streamStarted() {
+		this.activeStreams++;
+		this.streamStarts++;
+	}
+
+	/**
+	 * Runs the benchmarks requested during the streams once the last one ended
+	 */
+	public synchronized void streamStopped() {
+		this.activeStreams = Math.max(0, this.activeStreams - 1);
+
+		if (this.activeStreams > 0) {
+			return;
+		}
+
+		for (Map.Entry<String, MediaFormat> entry : this.deferred.entrySet()) {
+			this.schedule(entry.getKey(), entry.getValue());
+		}
+
+		this.deferred.clear();
+	}
+
+	/**
+	 * Gets the best encoder for a format without waiting for benchmarks
+	 *
+	 * @param format Encoder configuration
+	 * @return Codec name, the platform's choice until the format is benchmarked or when every candidate failed,
+	 * or null if no encoder supports it
+	 */
+	public String selectEncoder(MediaFormat format) {
+		final CodecScore score = this.getScore(format);
+
+		// Every candidate failed its benchmark, the platform may still know one that works
+		if (score != null && !score.isFailed()) {
+			return score.name;
+		}
+
+		return new MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format);
+	}
+
+	/**
+	 * Gets the score of the best encoder for a format, starting a background benchmark of its candidates
+	 * the first time it is requested
+	 *
+	 * @param format Encoder configuration, which must not be modified afterwards
+	 * @return Score of the selected encoder, or null until the benchmark completes or if no encoder supports the format
+	 */
+	public synchronized CodecScore getScore(final MediaFormat format) {
+		final String key = getFormatKey(format);
+
+		if (this.selected.containsKey(key) || !this.pending.add(key)) {
+			return this.selected.get(key);
+		}
+
+		this.schedule(key, format);
+
+		return null;
+	}
+
+	private void schedule(final String key, final MediaFormat format) {
+		this.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				CodecRegistry.this.benchmark(key, format);
+			}
+		});
+	}
+
+	/**
+	 * Defers a benchmark when a stream is active or started since the given count, so that no
+	 * score measured under its load is kept
+	 *
+	 * @return True if the benchmark was deferred
+	 */
+	private synchronized boolean deferIfStreaming(String key, MediaFormat format, long starts) {
+		if (this.activeStreams == 0 && this.streamStarts == starts) {
+			return false;
+		}
+
+		if (this.activeStreams > 0) {
+			this.deferred.put(key, format);
+		} else {
+			this.schedule(key, format);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Scores the candidates for a format, on the executor thread
+	 */
+	private void benchmark(String key, MediaFormat format) {
+		final CodecCache cache;
+		final long starts;
+
+		synchronized (this) {
+			cache = this.cache;
+			starts = this.streamStarts;
+		}
+
+		if (this.deferIfStreaming(key, format, starts)) {
+			return;
+		}
+
+		if (this.encoders.isEmpty()) {
+			for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+				if (info.isEncoder()) {
+					this.encoders.add(info);
+				}
+			}
+		}
+
+		final List<CodecScore> scores = new ArrayList<>();
+		boolean measured = false;
+
+		for (MediaCodecInfo info : this.getCandidates(format)) {
+			CodecScore score = cache.get(key, info.getName());
+
+			if (score == null) {
+				score = CodecBenchmark.run(info.getName(), isHardware(info), format);
+
+				// A stream started during the run, its score is skewed and the rest would compete with the stream
+				if (this.deferIfStreaming(key, format, starts)) {
+					if (measured) {
+						cache.save();
+					}
+
+					return;
+				}
+
+				// A failure may be transient, such as every instance being taken, so it is retried next process
+				if (!score.isFailed()) {
+					cache.put(key, score);
+					measured = true;
+				}
+			}
+
+			scores.add(score);
+		}
+
+		if (measured) {
+			cache.save();
+		}
+
+		// Failed scores sort last, a failed best one makes selectEncoder fall back to the platform's choice
+		Collections.sort(scores);
+
+		final CodecScore best = scores.isEmpty() ? null : scores.get(0);
+
+		Log.i(TAG, "Encoders for " + key + ": " + scores + ", selected " + (best != null ? best.name : null));
+
+		synchronized (this) {
+			this.selected.put(key, best);
+			this.pending.remove(key);
+		}
+	}
+
+	private List<MediaCodecInfo> getCandidates(MediaFormat format) {
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+		final List<MediaCodecInfo> candidates = new ArrayList<>();
+
+		for (MediaCodecInfo info : this.encoders) {
+			for (String type : info.getSupportedTypes()) {
+				if (!type.equalsIgnoreCase(mime)) {
+					continue;
+				}
+
+				try {
+					if (info.getCapabilitiesForType(type).isFormatSupported(format)) {
+						candidates.add(info);
+					}
+				} catch (IllegalArgumentException e) {
+					Log.w(TAG, "Could not query " + info.getName() + ": " + e.getMessage());
+				}
+
+				break;
+			}
+		}
+
+		return candidates;
+	}
+
+	private static boolean isHardware(MediaCodecInfo info) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+			return info.isHardwareAccelerated();
+		}
+
+		// Naming conventions of the platform software codecs before the flag existed
+		final String name = info.getName();
+
+		return !name.startsWith("OMX.google.") && !name.startsWith("c2.android.") && !name.contains(".sw.");
+	}
+
+	/**
+	 * Builds the cache key from the parameters that decide whether and how fast a codec can encode.
+	 * The bitrate is left out, it barely changes the cost and would benchmark every rung of a ladder.
+	 */
+	private static String getFormatKey(MediaFormat format) {
+		final String mime = format.getString(MediaFormat.KEY_MIME);
+
+		if (mime.startsWith("audio/")) {
+			return String.format("%s/%d/%d/%d", mime,
+				getInteger(format, MediaFormat.KEY_AAC_PROFILE),
+				getInteger(format, MediaFormat.KEY_SAMPLE_RATE),
+				getInteger(format, MediaFormat.KEY_CHANNEL_COUNT));
+		}
+
+		return String.format("%s/%dx%d@%d/%d", mime,
+			getInteger(format, MediaFormat.KEY_WIDTH),
+			getInteger(format, MediaFormat.KEY_HEIGHT),
+			getInteger(format, MediaFormat.KEY_FRAME_RATE),
+			getInteger(format, MediaFormat.KEY_PROFILE));
+	}
+
+	private static int getInteger(MediaFormat format, String key) {
+		return format.containsKey(key) ? format.getInteger(key) : 0;
+	}
+}
@@ -0,0 +1,114 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.util.Locale;
+
+/**
+ * Benchmark results of one encoder for one media format
+ */
+public class CodecScore implements Comparable<CodecScore> {
+	/**
+	 * Codec name, as accepted by MediaCodec.createByCodecName
+	 */
+	public final String name;
+
+	/**
+	 * Whether the codec runs on dedicated hardware
+	 */
+	public final boolean hardware;
+
+	/**
+	 * Median time from queueing an input frame to dequeueing its output, in microseconds, or -1 if the benchmark failed
+	 */
+	public final long latency;
+
+	/**
+	 * Process CPU time spent per second of encoded media, in ms
+	 */
+	public final long cpu;
+
+	/**
+	 * Wall time spent per second of encoded media, in ms
+	 */
+	public final long wall;
+
+	public CodecScore(String name, boolean hardware, long latency, long cpu, long wall) {
+		this.name = name;
+		this.hardware = hardware;
+		this.latency = latency;
+		this.cpu = cpu;
+		this.wall = wall;
+	}
+
+	/**
+	 * Creates the score of a codec that could not complete the benchmark
+	 */
+	public static CodecScore failed(String name, boolean hardware) {
+		return new CodecScore(name, hardware, -1, 0, 0);
+	}
+
+	public boolean isFailed() {
+		return this.latency < 0;
+	}
+
+	/**
+	 * Orders codecs from best to worst: working codecs first, then by latency,
+	 * CPU cost and finally hardware before software
+	 */
+	@Override
+	public int compareTo(CodecScore other) {
+		if (this.isFailed() != other.isFailed()) {
+			return this.isFailed() ? 1 : -1;
+		}
+
+		if (this.latency != other.latency) {
+			return this.latency < other.latency ? -1 : 1;
+		}
+
+		if (this.cpu != other.cpu) {
+			return this.cpu < other.cpu ? -1 : 1;
+		}
+
+		if (this.hardware != other.hardware) {
+			return this.hardware ? -1 : 1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Serializes the measurements, without the name, for the score cache
+	 */
+	String encode() {
+		return String.format(Locale.ROOT, "%b,%d,%d,%d", this.hardware, this.latency, this.cpu, this.wall);
+	}
+
+	/**
+	 * Parses measurements written by {@link #encode()}
+	 *
+	 * @return The score, or null if the value is malformed
+	 */
+	static CodecScore decode(String name, String value) {
+		final String[] fields = value.split(",");
+
+		if (fields.length != 4) {
+			return null;
+		}
+
+		try {
+			return new CodecScore(name, Boolean.parseBoolean(fields[0]),
+				Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (this.isFailed()) {
+			return String.format("%s (%s): failed", this.name, this.hardware ? "hw" : "sw");
+		}
+
+		return String.format("%s (%s): latency=%d us cpu=%d ms/s wall=%d ms/s",
+			this.name, this.hardware ? "hw" : "sw", this.latency, this.cpu, this.wall);
+	}
+}
@@ -6,6 +6,10 @@ import android.media.MediaFormat;
 import java.io.IOException;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 public class FFMpegMuxer {
 	/**
@@ -14,6 +18,11 @@ public class FFMpegMuxer {
 	private static final int CODEC_H264 = 0;
 	private static final int CODEC_H265 = 1;
 
+	/**
+	 * DASH segment duration, rounded to whole audio frames, in microseconds
+	 */
+	private static final long DASH_SEGMENT_DURATION = 5000000;
+
 	/**
 	 * Streaming URL
 	 */
@@ -25,9 +34,24 @@ public class FFMpegMuxer {
 	private MediaFormat video;
 
 	/**
-	 * Audio stream format
+	 * Audio stream formats, one per rendition
+	 */
+	private final List<MediaFormat> audio = new ArrayList<>();
+
+	/**
+	 * Native stream index of each audio track
 	 */
-	private MediaFormat audio;
+	private int[] audioStreams = new int[0];
+
+	/**
+	 * Whether a timed text stream is added
+	 */
+	private boolean text;
+
+	/**
+	 * Muxer and protocol tuning
+	 */
+	private StreamOptions options = new StreamOptions();
 
 	/**
 	 * Muxer ID
@@ -43,17 +67,38 @@ public class FFMpegMuxer {
 		this.url = url;
 	}
 
+	/**
+	 * Set muxer and protocol options, applied on start
+	 *
+	 * @param options Stream options
+	 */
+	public void setOptions(StreamOptions options) {
+		this.options = options;
+	}
+
 	/**
 	 * Adds a track with the specified format.
 	 *
+	 * Every audio track after the first is another rendition of the same audio.
+	 *
 	 * @param format The media format for the track.
+	 * @return Audio track number, or 0 for the video track
 	 */
-	public void addTrack(MediaFormat format) {
+	public int addTrack(MediaFormat format) {
 		if (format.getString(MediaFormat.KEY_MIME).contains("video")) {
 			video = format;
-		} else {
-			audio = format;
+			return 0;
 		}
+
+		audio.add(format);
+		return audio.size() - 1;
+	}
+
+	/**
+	 * Adds a timed text track, written as onTextData tags in FLV
+	 */
+	public void addTextTrack() {
+		text = true;
 	}
 
 	/**
@@ -64,7 +109,14 @@ public class FFMpegMuxer {
 		if (url.contains("rtmp")) format = "flv";
 		if (url.contains("http")) format = "dash";
 
-		id = open(url, format);
+		String[] formatOptions = options.toDictionary(StreamOptions.TARGET_FORMAT);
+		if (format.equals("dash")) formatOptions = concat(getDashOptions(), formatOptions);
+
+		// Renditions are written from their own threads, the interleaving queue hands them to dashenc in timestamp order
+		boolean interleaved = options.isInterleaved() || audio.size() > 1;
+
+		id = open(url, format, formatOptions, options.toDictionary(StreamOptions.TARGET_PROTOCOL),
+			options.getAvioBufferSize(), interleaved, options.getFlushInterval());
 		if (id < 0) {
 			id = 0;
 			throw new SocketException("Cannot not stream to " + url);
@@ -89,13 +141,25 @@ public class FFMpegMuxer {
 			if (ret < 0) throw new SocketException("Cannot initialize video stream");
 		}
 
-		// Add audio stream
-		if (audio != null) {
-			String mime = audio.getString(MediaFormat.KEY_MIME);
-			int sample = audio.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-			int bitrate = audio.getInteger(MediaFormat.KEY_BIT_RATE);
-			int ret = addAudioTrack(id, 0, sample, bitrate);
+		// Add audio streams
+		if (audio.size() > 1 && !format.equals("dash")) throw new SocketException("Audio renditions are only supported for DASH endpoints");
+		audioStreams = new int[audio.size()];
+		for (int i = 0; i < audio.size(); i++) {
+			MediaFormat track = audio.get(i);
+			int profile = track.getInteger(MediaFormat.KEY_AAC_PROFILE);
+			int sample = track.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+			int channels = track.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+			int bitrate = track.getInteger(MediaFormat.KEY_BIT_RATE);
+			int ret = addAudioTrack(id, profile, sample, channels, bitrate);
 			if (ret < 0) throw new SocketException("Cannot initialize audio stream");
+			audioStreams[i] = ret;
+		}
+
+		// Add text stream
+		if (text) {
+			if (!format.equals("flv")) throw new SocketException("Timed text is only supported for RTMP endpoints");
+			int ret = addDataTrack(id);
+			if (ret < 0) throw new SocketException("Cannot initialize text stream");
 		}
 	}
 
@@ -107,15 +171,52 @@ public class FFMpegMuxer {
 		id = 0;
 	}
 
+	/**
+	 * Builds the DASH options derived from the tracks, placed before the caller options so those still override them.
+	 * Segments hold whole audio frames, so every rendition is cut at the same packet.
+	 */
+	private String[] getDashOptions() {
+		List<String> pairs = new ArrayList<>();
+
+		if (!audio.isEmpty()) {
+			MediaFormat track = audio.get(0);
+			AudioProfile profile = new AudioProfile(
+				AudioProfile.Aac.fromObjectType(track.getInteger(MediaFormat.KEY_AAC_PROFILE)),
+				track.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+				track.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+				track.getInteger(MediaFormat.KEY_BIT_RATE));
+			pairs.add("seg_duration");
+			pairs.add(String.format(Locale.ROOT, "%.6f", profile.alignDuration(DASH_SEGMENT_DURATION) / 1000000.0));
+		}
+
+		// The video adaptation set would be empty without a video track, all audio renditions share one set
+		pairs.add("adaptation_sets");
+		pairs.add(video != null ? "id=0,streams=v id=1,streams=a" : "id=0,streams=a");
+
+		return pairs.toArray(new String[0]);
+	}
+
+	private static String[] concat(String[] first, String[] second) {
+		String[] pairs = new String[first.length + second.length];
+		System.arraycopy(first, 0, pairs, 0, first.length);
+		System.arraycopy(second, 0, pairs, first.length, second.length);
+		return pairs;
+	}
+
 	/**
 	 * Writes video frames into the output stream
 	 *
 	 * @param byteBuf    Buffer of video frames
 	 * @param bufferInfo Buffer info
 	 */
-	public void writeVideoSample(ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) throws IOException {
+	public synchronized void writeVideoSample(ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) throws IOException {
 		if (id == 0) return;
-		String ret = writeVideoSample(id, byteBuf.array(), bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		String ret;
+		if (byteBuf.isDirect()) {
+			ret = writeVideoBuffer(id, byteBuf, byteBuf.position(), bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		} else {
+			ret = writeVideoSample(id, byteBuf.array(), bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		}
 		if (ret != null) throw new SocketException("Error streaming: " + ret);
 	}
 
@@ -126,21 +227,63 @@ public class FFMpegMuxer {
 	 * @param bufferInfo Buffer info
 	 */
 	public void writeAudioSample(ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo) throws IOException {
+		writeAudioSample(byteBuf, bufferInfo, 0);
+	}
+
+	/**
+	 * Writes audio frames of one rendition into the output stream.
+	 * Renditions write from their own threads, so writes are serialized here.
+	 *
+	 * @param byteBuf    Buffer of audio frames
+	 * @param bufferInfo Buffer info
+	 * @param track      Audio track number returned by {@link #addTrack(MediaFormat)}
+	 */
+	public synchronized void writeAudioSample(ByteBuffer byteBuf, MediaCodec.BufferInfo bufferInfo, int track) throws IOException {
 		if (id == 0) return;
-		String ret = writeAudioSample(id, byteBuf.array(), bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		int index = track < audioStreams.length ? audioStreams[track] : -1;
+		String ret;
+		if (byteBuf.isDirect()) {
+			// Direct and mapped buffers are read in place by the native side
+			ret = writeAudioBuffer(id, index, byteBuf, byteBuf.position(), bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		} else {
+			ret = writeAudioSample(id, index, byteBuf.array(), bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+		}
+		if (ret != null) throw new SocketException("Error streaming: " + ret);
+	}
+
+	/**
+	 * Writes timed text into the output stream
+	 *
+	 * @param value Text
+	 * @param pts   Presentation time in microseconds
+	 */
+	public synchronized void writeText(String value, long pts) throws IOException {
+		if (id == 0) return;
+		// The FLV muxer reads the text as a C string
+		byte[] data = (value + '\0').getBytes(StandardCharsets.UTF_8);
+		String ret = writeDataSample(id, data, data.length, pts);
 		if (ret != null) throw new SocketException("Error streaming: " + ret);
 	}
 
 	// NATIVE CALLS
-	private static native long open(String url, String format);
+	private static native long open(String url, String format, String[] formatOptions, String[] protocolOptions,
+		int bufferSize, boolean interleaved, long flushInterval);
 
 	private static native int addVideoTrack(long id, int type, int width, int height, int fps, int gop, int bitrate);
 
-	private static native int addAudioTrack(long id, int type, int sample, int bitrate);
+	private static native int addAudioTrack(long id, int profile, int sample, int channels, int bitrate);
+
+	private static native int addDataTrack(long id);
 
 	private static native String writeVideoSample(long id, byte[] data, int len, long pts, int flags);
 
-	private static native String writeAudioSample(long id, byte[] data, int len, long pts, int flags);
+	private static native String writeAudioSample(long id, int index, byte[] data, int len, long pts, int flags);
+
+	private static native String writeDataSample(long id, byte[] data, int len, long pts);
+
+	private static native String writeVideoBuffer(long id, ByteBuffer data, int offset, int len, long pts, int flags);
+
+	private static native String writeAudioBuffer(long id, int index, ByteBuffer data, int offset, int len, long pts, int flags);
 
 	private static native void close(long id);
 
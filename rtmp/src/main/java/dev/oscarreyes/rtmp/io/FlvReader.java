@@ -0,0 +1,101 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts AAC packets from the audio tags of an FLV file.
+ * Packets are slices of the source buffer, so a memory-mapped file is never copied.
+ */
+public class FlvReader implements PacketReader {
+	private static final int FILE_HEADER_SIZE = 9;
+	private static final int TAG_HEADER_SIZE = 11;
+	private static final int PREVIOUS_TAG_SIZE = 4;
+	private static final int TAG_AUDIO = 8;
+	private static final int SOUND_FORMAT_AAC = 10;
+	private static final int AAC_SEQUENCE_HEADER = 0;
+
+	private final ByteBuffer buffer;
+	private final AudioSpecificConfig config;
+
+	public FlvReader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer.duplicate();
+
+		final int start = this.buffer.position();
+
+		if (this.buffer.remaining() < FILE_HEADER_SIZE
+			|| this.buffer.get(start) != 'F' || this.buffer.get(start + 1) != 'L' || this.buffer.get(start + 2) != 'V') {
+			throw new IOException("Not an FLV file");
+		}
+
+		this.buffer.position(start + this.buffer.getInt(start + 5) + PREVIOUS_TAG_SIZE);
+		this.config = this.findConfig();
+	}
+
+	@Override
+	public AudioSpecificConfig getConfig() {
+		return this.config;
+	}
+
+	@Override
+	public boolean next(Frame frame) throws IOException {
+		while (this.buffer.remaining() >= TAG_HEADER_SIZE) {
+			final int position = this.buffer.position();
+			final int type = this.buffer.get(position) & 0x1F;
+			final int size = readUnsigned24(this.buffer, position + 1);
+			final long timestamp = readUnsigned24(this.buffer, position + 4) | ((this.buffer.get(position + 7) & 0xFFL) << 24);
+			final int body = position + TAG_HEADER_SIZE;
+
+			if (body + size > this.buffer.limit()) {
+				throw new IOException("Truncated FLV tag at " + position);
+			}
+
+			this.buffer.position(Math.min(this.buffer.limit(), body + size + PREVIOUS_TAG_SIZE));
+
+			if (type != TAG_AUDIO || size < 2 || (this.buffer.get(body) & 0xFF) >> 4 != SOUND_FORMAT_AAC) {
+				continue;
+			}
+
+			final ByteBuffer payload = this.buffer.duplicate();
+
+			payload.limit(body + size);
+			payload.position(body + 2);
+
+			frame.buffer = payload.slice();
+			frame.data = null;
+			frame.size = size - 2;
+			frame.timestamp = timestamp * 1000;
+			frame.flags = this.buffer.get(body + 1) == AAC_SEQUENCE_HEADER ? MediaCodec.BUFFER_FLAG_CODEC_CONFIG : 0;
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Scans ahead for the first AAC sequence header, leaving the read position untouched
+	 */
+	private AudioSpecificConfig findConfig() throws IOException {
+		final int start = this.buffer.position();
+		final Frame frame = new Frame();
+
+		try {
+			while (this.next(frame)) {
+				if ((frame.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+					return AudioSpecificConfig.parse(frame.buffer, 0);
+				}
+			}
+		} finally {
+			this.buffer.position(start);
+		}
+
+		throw new IOException("No AAC sequence header found");
+	}
+
+	private static int readUnsigned24(ByteBuffer buffer, int offset) {
+		return ((buffer.get(offset) & 0xFF) << 16) | ((buffer.get(offset + 1) & 0xFF) << 8) | (buffer.get(offset + 2) & 0xFF);
+	}
+}
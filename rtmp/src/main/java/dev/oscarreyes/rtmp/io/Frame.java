@@ -2,10 +2,13 @@ package dev.oscarreyes.rtmp.io;
 
 import android.media.MediaCodec;
 
+import java.nio.ByteBuffer;
+
 public class Frame {
 	public int flags;
 	public int size;
 	public long timestamp;
 	public byte[] data;
+	public ByteBuffer buffer; // Used instead of data when the payload is a slice of a direct or mapped buffer
 	public MediaCodec.BufferInfo info;
 }
@@ -0,0 +1,37 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaFormat;
+
+import java.io.IOException;
+
+/**
+ * A producer of encoded frames that can feed the muxer
+ */
+public interface FrameSource {
+	/**
+	 * Gets the format of the frames produced by this source
+	 * @return Media format
+	 */
+	MediaFormat getFormat();
+
+	/**
+	 * Prepares the source for reading
+	 * @throws IOException
+	 */
+	void start() throws IOException;
+
+	/**
+	 * Releases the source
+	 */
+	void stop();
+
+	/**
+	 * Reads the next encoded frame.
+	 * Sources fed by a capture device block until the next input chunk is captured, which paces
+	 * the caller; other sources return at once. The frame has no payload when nothing is ready
+	 * yet, and carries MediaCodec.BUFFER_FLAG_END_OF_STREAM once the source is exhausted.
+	 * @return Frame object with data information
+	 * @throws IOException
+	 */
+	Frame read() throws IOException;
+}
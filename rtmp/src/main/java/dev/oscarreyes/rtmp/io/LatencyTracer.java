@@ -0,0 +1,124 @@
+package dev.oscarreyes.rtmp.io;
+
+/**
+ * Builds the latency traces embedded in the stream as timed text.
+ * <p>
+ * Each trace names one audio packet by sequence number and presentation time and carries the
+ * wall clock times at which it was captured, came out of the encoder and was handed to the
+ * muxer. A receiver compares them against its own wall clock on arrival, which makes the
+ * measurement glass-to-glass as long as both clocks are synchronised (NTP).
+ */
+public class LatencyTracer {
+	/**
+	 * Default time between traces in ms
+	 */
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	/**
+	 * Stage times of one traced packet, in wall clock microseconds
+	 */
+	public static class Trace {
+		public final long sequence;
+
+		/**
+		 * Output presentation time of the traced packet in microseconds
+		 */
+		public final long pts;
+
+		public final long capture;
+		public final long encode;
+		public final long mux;
+
+		public Trace(long sequence, long pts, long capture, long encode, long mux) {
+			this.sequence = sequence;
+			this.pts = pts;
+			this.capture = capture;
+			this.encode = encode;
+			this.mux = mux;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("seq=%d;pts=%d;capture=%d;encode=%d;mux=%d",
+				this.sequence, this.pts, this.capture, this.encode, this.mux);
+		}
+	}
+
+	private final long interval;
+
+	/**
+	 * Wall clock minus System.nanoTime() in microseconds, fixed so that clock adjustments
+	 * during a session do not distort the stage differences
+	 */
+	private final long wallOffset;
+
+	private long sequence;
+	private long nextTrace = Long.MIN_VALUE;
+
+	/**
+	 * @param interval Time between traces in ms
+	 */
+	public LatencyTracer(long interval) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Trace interval must be positive");
+		}
+
+		this.interval = interval * 1000;
+		this.wallOffset = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+	}
+
+	/**
+	 * Checks whether the packet at an output timestamp should be traced
+	 *
+	 * @param pts Output presentation time in microseconds
+	 */
+	public boolean isDue(long pts) {
+		return pts >= this.nextTrace;
+	}
+
+	/**
+	 * Creates the trace of a packet and schedules the next one
+	 *
+	 * @param pts     Output presentation time in microseconds
+	 * @param capture System.nanoTime() in microseconds when the packet input was captured
+	 * @param encode  System.nanoTime() in microseconds when the packet left the encoder
+	 * @param mux     System.nanoTime() in microseconds when the muxer accepted the packet
+	 * @return Trace with wall clock stage times
+	 */
+	public Trace trace(long pts, long capture, long encode, long mux) {
+		this.nextTrace = pts + this.interval;
+
+		return new Trace(this.sequence++, pts,
+			capture + this.wallOffset, encode + this.wallOffset, mux + this.wallOffset);
+	}
+
+	/**
+	 * Parses the text of a trace
+	 *
+	 * @param text Text written by {@link Trace#toString()}
+	 * @return The trace, or null if the text is not one
+	 */
+	public static Trace parse(String text) {
+		final long[] values = new long[5];
+		final String[] names = {"seq", "pts", "capture", "encode", "mux"};
+		final String[] fields = text.split(";");
+
+		if (fields.length != names.length) {
+			return null;
+		}
+
+		for (int i = 0; i < names.length; i++) {
+			if (!fields[i].startsWith(names[i] + "=")) {
+				return null;
+			}
+
+			try {
+				values[i] = Long.parseLong(fields[i].substring(names[i].length() + 1));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		return new Trace(values[0], values[1], values[2], values[3], values[4]);
+	}
+}
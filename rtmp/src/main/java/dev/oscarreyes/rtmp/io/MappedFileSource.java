@@ -0,0 +1,169 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Restreams a pre-encoded AAC file (ADTS or FLV) from a memory mapping.
+ * Packets are handed to the muxer as slices of the mapping, no payload is copied on the Java side.
+ */
+public class MappedFileSource implements FrameSource {
+	private static final String TAG = MappedFileSource.class.getSimpleName();
+
+	private final File file;
+	private final boolean paced;
+
+	private MediaFormat format;
+	private PacketReader reader;
+
+	/**
+	 * Next packet, held back until its presentation time when pacing
+	 */
+	private Frame pending;
+
+	private long startNanos;
+	private long firstTimestamp = -1;
+	private long packets;
+	private long bytes;
+
+	/**
+	 * @param file  ADTS (.aac, .adts) or FLV (.flv) file
+	 * @param paced Release packets at their timestamps, or as fast as the muxer accepts them
+	 * @throws IOException If the file cannot be mapped or parsed
+	 */
+	public MappedFileSource(File file, boolean paced) throws IOException {
+		this.file = file;
+		this.paced = paced;
+		this.reader = this.createReader();
+
+		final AudioSpecificConfig config = this.reader.getConfig();
+
+		this.format = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC,
+			config.getOutputSampleRate(), config.getOutputChannelCount());
+		this.format.setInteger(MediaFormat.KEY_AAC_PROFILE, config.objectType);
+		this.format.setByteBuffer("csd-0", ByteBuffer.wrap(config.toBytes()));
+	}
+
+	private PacketReader createReader() throws IOException {
+		final String name = this.file.getName().toLowerCase();
+
+		try (RandomAccessFile input = new RandomAccessFile(this.file, "r")) {
+			// The mapping stays valid after the channel is closed
+			final MappedByteBuffer buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+
+			if (name.endsWith(".aac") || name.endsWith(".adts")) {
+				return new AdtsReader(buffer);
+			}
+
+			if (name.endsWith(".flv")) {
+				return new FlvReader(buffer);
+			}
+		}
+
+		throw new IOException("Unsupported file type " + this.file.getName());
+	}
+
+	@Override
+	public MediaFormat getFormat() {
+		return this.format;
+	}
+
+	@Override
+	public void start() throws IOException {
+		if (this.reader == null) {
+			this.reader = this.createReader();
+		}
+
+		this.pending = null;
+		this.firstTimestamp = -1;
+		this.packets = 0;
+		this.bytes = 0;
+	}
+
+	@Override
+	public void stop() {
+		this.reader = null;
+		this.pending = null;
+	}
+
+	@Override
+	public Frame read() throws IOException {
+		if (this.pending == null && !this.readPacket()) {
+			final Frame end = new Frame();
+
+			end.flags = MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+			this.logStatistics();
+
+			return end;
+		}
+
+		final long now = System.nanoTime();
+
+		if (this.firstTimestamp < 0) {
+			this.firstTimestamp = this.pending.timestamp;
+			this.startNanos = now;
+		}
+
+		if (this.paced && now < this.startNanos + (this.pending.timestamp - this.firstTimestamp) * 1000) {
+			return new Frame();
+		}
+
+		final Frame frame = this.pending;
+
+		this.pending = null;
+		this.packets++;
+		this.bytes += frame.size;
+
+		return frame;
+	}
+
+	/**
+	 * Reads the next media packet into pending, skipping codec config packets
+	 */
+	private boolean readPacket() throws IOException {
+		if (this.reader == null) {
+			return false;
+		}
+
+		final Frame frame = new Frame();
+
+		do {
+			if (!this.reader.next(frame)) {
+				return false;
+			}
+		} while ((frame.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0);
+
+		frame.info = new MediaCodec.BufferInfo();
+		frame.info.set(0, frame.size, frame.timestamp, frame.flags);
+
+		this.pending = frame;
+
+		return true;
+	}
+
+	/**
+	 * Logs the achieved packet rate. Unpaced, the channel writes packets in batches without waiting
+	 * on live capture, so this is the throughput of parsing and muxing, shared with any video output.
+	 */
+	private void logStatistics() {
+		if (this.packets == 0) {
+			return;
+		}
+
+		final long elapsed = Math.max(1, (System.nanoTime() - this.startNanos) / 1000000);
+
+		Log.i(TAG, String.format("Restreamed %d packets (%d bytes) of %s in %d ms: %.1f packets/s, %d kbps",
+			this.packets, this.bytes, this.file.getName(), elapsed,
+			this.packets * 1000.0 / elapsed, this.bytes * 8 / elapsed));
+
+		this.packets = 0;
+	}
+}
@@ -1,10 +1,17 @@
 package dev.oscarreyes.rtmp.io;
 
+import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.media.MediaRecorder;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import dev.oscarreyes.rtmp.async.Worker;
 
@@ -15,37 +22,474 @@ import dev.oscarreyes.rtmp.async.Worker;
 public class MasterEncoderChannel extends Worker {
 	private static final String TAG = MasterEncoderChannel.class.getSimpleName();
 
+	/**
+	 * Longest wait for an input buffer of the primary encoder once shared PCM is read
+	 */
+	private static final long SHARED_INPUT_TIMEOUT_US = 10000;
+
+	/**
+	 * Longest wait in ms for the worker thread to leave the encoders before they are stopped
+	 */
+	private static final long JOIN_TIMEOUT_MS = 1000;
+
+	/**
+	 * Most packets of a spliced source written per cycle, an unpaced source fills every batch
+	 */
+	private static final int SPLICE_BATCH = 64;
+
 	private AudioEncoder audioEncoder;
+	private AudioCapture audioCapture;
+	private VideoEncoder videoEncoder;
 	private FFMpegMuxer ffMpegMuxer;
 
-	private final MediaFormat audioFormat;
+	private AudioProfile audioProfile;
+	private MediaFormat audioFormat;
+	private VideoProfile videoProfile;
+	private String destination;
+	private long traceInterval;
+	private StreamOptions streamOptions = new StreamOptions();
+	private LatencyTracer tracer;
+
+	/**
+	 * Extra audio renditions encoded from the capture of the primary track
+	 */
+	private AudioProfile[] renditionProfiles = new AudioProfile[0];
+	private Rendition[] renditions = new Rendition[0];
+
+	/**
+	 * Shared PCM chunks dropped for every track because an encoder fell behind
+	 */
+	private volatile long droppedChunks;
 
-	public MasterEncoderChannel(String name) {
+	/**
+	 * Process CPU time (-1 until every encoder started) and uptime in ms when the encoders were started,
+	 * the process CPU time per second of the last finished run, and of the last run without renditions
+	 * with its audio profile
+	 */
+	private long cpuStart = -1;
+	private long uptimeStart;
+	private long runCpu = -1;
+	private long baselineCpu = -1;
+	private AudioProfile baselineProfile;
+
+	/**
+	 * Source that replaces live capture, and the one requested to replace it next
+	 */
+	private FrameSource splicedSource;
+	private FrameSource nextSource;
+	private boolean spliceRequested;
+	private boolean spliceEnded;
+
+	/**
+	 * Frames handed from capture to process: a live frame, or the packets of the spliced source that are due
+	 */
+	private Frame audioFrame;
+	private final List<Frame> splicedFrames = new ArrayList<>();
+
+	/**
+	 * System.nanoTime() in microseconds when the live audio frame was dequeued from the encoder
+	 */
+	private long encodedAt;
+
+	/**
+	 * Output timeline state, in microseconds
+	 */
+	private boolean configured;
+	private boolean videoConfigured;
+	private long liveOrigin;
+	private long sourceStart = -1;
+	private long timestampOffset;
+	private long lastTimestamp = -1;
+	private long lastDuration;
+	private long lastVideoTimestamp = -1;
+
+	/**
+	 * Difference from live capture time to output time, moved by each return from a spliced source
+	 */
+	private long liveShift;
+
+	public MasterEncoderChannel(String name, AudioProfile audioProfile) {
 		super(name);
 
-		this.audioFormat = AudioEncoder.getMediaFormat();
+		this.setAudioProfile(audioProfile);
+	}
+
+	/**
+	 * Sets the audio encoding profile used on the next start
+	 *
+	 * @param audioProfile Audio encoding profile
+	 */
+	public void setAudioProfile(AudioProfile audioProfile) {
+		this.audioProfile = audioProfile;
+		this.audioFormat = AudioEncoder.getMediaFormat(audioProfile);
+	}
+
+	/**
+	 * Sets extra audio renditions encoded on the next start, next to the primary audio profile.
+	 * Renditions need the sample rate, channel count and frame size of the primary profile so
+	 * that all of them are segmented at the same boundaries, and a DASH destination.
+	 * Only audio has renditions so far, a video track is muxed once next to them.
+	 *
+	 * @param profiles Rendition profiles, none for a single rendition
+	 */
+	public void setRenditions(AudioProfile... profiles) {
+		for (AudioProfile profile : profiles) {
+			if (!this.audioProfile.isFrameAligned(profile)) {
+				throw new IllegalArgumentException(String.format(
+					"Rendition %s is not frame aligned with the stream (%s)", profile, this.audioProfile));
+			}
+		}
+
+		this.renditionProfiles = profiles.clone();
+	}
+
+	/**
+	 * Gets the encoding results of the extra renditions, including their CPU cost.
+	 * The extra process CPU compares the run with the last one without renditions and the same audio profile.
+	 *
+	 * @return Results of the running renditions, or of the last run once stopped
+	 */
+	public synchronized List<Rendition.Stats> getRenditionStats() {
+		final List<Rendition.Stats> stats = new ArrayList<>();
+		final long cpu = this.runCpu >= 0 ? this.runCpu : this.cpuStart >= 0 ? this.getProcessCpu() : -1;
+		final long extraCpu = this.audioProfile.equals(this.baselineProfile) && cpu >= 0 && this.renditions.length > 0
+			? Math.max(0, cpu - this.baselineCpu) / this.renditions.length : -1;
+
+		for (Rendition rendition : this.renditions) {
+			if (rendition != null) {
+				stats.add(rendition.getStats(this.droppedChunks, extraCpu));
+			}
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Gets the process CPU time per second since the encoders were started, in ms
+	 */
+	private long getProcessCpu() {
+		final long elapsed = Math.max(1, SystemClock.uptimeMillis() - this.uptimeStart);
+
+		return (Process.getElapsedCpuTime() - this.cpuStart) * 1000 / elapsed;
+	}
+
+	/**
+	 * Sets the video encoding profile used on the next start
+	 *
+	 * @param videoProfile Video encoding profile, or null for an audio only stream
+	 */
+	public void setVideoProfile(VideoProfile videoProfile) {
+		this.videoProfile = videoProfile;
+	}
+
+	/**
+	 * Gets the surface to render video frames into
+	 *
+	 * @return Encoder input surface, or null when video is disabled or the encoder is not started
+	 */
+	public Surface getVideoSurface() {
+		final VideoEncoder videoEncoder = this.videoEncoder;
+
+		return videoEncoder != null ? videoEncoder.getInputSurface() : null;
+	}
+
+	/**
+	 * Sets the muxer and protocol options used on the next start
+	 *
+	 * @param streamOptions Stream options
+	 */
+	public void setStreamOptions(StreamOptions streamOptions) {
+		this.streamOptions = streamOptions;
+	}
+
+	/**
+	 * Enables latency traces in the stream on the next start
+	 *
+	 * @param interval Time between traces in ms, 0 disables tracing
+	 */
+	public void setTracing(long interval) {
+		this.traceInterval = interval;
+	}
+
+	/**
+	 * Sets the destination used on the next start
+	 *
+	 * @param destination URL of the ingest server
+	 */
+	public void setDestination(String destination) {
+		this.destination = destination;
 	}
 
 	@Override
 	protected void capture() throws Exception {
-		this.audioEncoder.captureAudio();
+		synchronized (this) {
+			if (this.spliceRequested) {
+				this.switchSource(this.nextSource);
+				this.nextSource = null;
+				this.spliceRequested = false;
+			}
+		}
+
+		this.audioFrame = null;
+		this.splicedFrames.clear();
+
+		// Packets due at once, as from an unpaced source, are not held to real time by live capture
+		if (this.splicedSource != null && this.readSpliced()) {
+			return;
+		}
+
+		// The live encoder keeps running while a paced source plays, so returning to it is seamless
+		final Frame liveFrame = this.audioCapture != null ? this.readShared() : this.audioEncoder.read();
+
+		this.encodedAt = System.nanoTime() / 1000;
+
+		if (this.splicedSource == null) {
+			this.audioFrame = liveFrame;
+		}
+	}
+
+	/**
+	 * Reads every packet of the spliced source that is due, up to a batch
+	 *
+	 * @return True if the batch is full or the source ended, so live capture is not waited for this cycle
+	 * @throws IOException
+	 */
+	private boolean readSpliced() throws IOException {
+		while (this.splicedFrames.size() < SPLICE_BATCH) {
+			final Frame frame = this.splicedSource.read();
+
+			if ((frame.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+				this.spliceEnded = true;
+				return true;
+			}
+
+			if (frame.data == null && frame.buffer == null) {
+				return false;
+			}
+
+			this.splicedFrames.add(frame);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads a PCM chunk from the shared capture, hands it to every rendition and encodes it for the primary track.
+	 * A chunk is encoded by every track or dropped for all of them, so the renditions stay identical.
+	 *
+	 * @return Next encoded frame of the primary track
+	 */
+	private Frame readShared() {
+		// A new chunk per read, renditions may still be encoding the previous one
+		final Frame input = new Frame();
+
+		input.timestamp = System.nanoTime() / 1000;
+		input.data = new byte[this.audioCapture.getBufferSize()];
+		input.size = this.audioCapture.read(input.data);
+
+		if (input.size > 0) {
+			boolean accepted = true;
+
+			// Only this thread adds chunks, so room found here is still there after the primary track is fed
+			for (Rendition rendition : this.renditions) {
+				accepted &= rendition.hasRoom();
+			}
+
+			if (accepted && this.audioEncoder.queueAudio(input, SHARED_INPUT_TIMEOUT_US)) {
+				for (Rendition rendition : this.renditions) {
+					rendition.offer(input);
+				}
+			} else {
+				this.droppedChunks++;
+			}
+		}
+
+		return this.audioEncoder.getAudioFrame();
 	}
 
 	@Override
 	protected void process() throws Exception {
-		final Frame audioFrame = this.audioEncoder.getAudioFrame();
+		if (this.videoEncoder != null) {
+			this.drainVideo();
+		}
+
+		for (Frame frame : this.splicedFrames) {
+			this.processAudio(frame);
+		}
 
-		if (audioFrame.data == null) {
+		// Live capture resumes next cycle, after the last packet was written on the spliced timeline
+		if (this.spliceEnded) {
+			this.switchSource(null);
+		}
+
+		if (this.audioFrame != null) {
+			this.processAudio(this.audioFrame);
+		}
+	}
+
+	/**
+	 * Writes every access unit the video encoder has ready, which may be several per audio frame
+	 */
+	private void drainVideo() {
+		Frame videoFrame = this.videoEncoder.read();
+
+		while (videoFrame.data != null || videoFrame.buffer != null) {
+			this.processVideo(videoFrame);
+			videoFrame = this.videoEncoder.read();
+		}
+	}
+
+	private void processVideo(Frame videoFrame) {
+		if ((videoFrame.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+			if (this.videoConfigured) {
+				return;
+			}
+
+			this.videoConfigured = true;
+		} else {
+			// Video is captured live, so it takes the live audio mapping; a splice may shift it back a little
+			final long pts = Math.max(0, videoFrame.timestamp + this.liveShift);
+
+			videoFrame.info.presentationTimeUs = Math.max(pts, this.lastVideoTimestamp + 1);
+			this.lastVideoTimestamp = videoFrame.info.presentationTimeUs;
+		}
+
+		final ByteBuffer videoBuffer = videoFrame.buffer != null ? videoFrame.buffer : ByteBuffer.wrap(videoFrame.data);
+
+		try {
+			this.ffMpegMuxer.writeVideoSample(videoBuffer, videoFrame.info);
+		} catch (IOException ignored) {
+		}
+	}
+
+	private void processAudio(Frame audioFrame) {
+		if (audioFrame.data == null && audioFrame.buffer == null) {
 			return;
 		}
 
-		final ByteBuffer audioBuffer = ByteBuffer.wrap(audioFrame.data);
+		if ((audioFrame.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+			// The stream header carries the first config only, later ones would be muxed as audio
+			if (this.configured) {
+				return;
+			}
+
+			this.configured = true;
+		} else {
+			audioFrame.info.presentationTimeUs = this.continueTimestamp(audioFrame.timestamp);
+
+			if (this.splicedSource == null) {
+				this.liveShift = audioFrame.info.presentationTimeUs - audioFrame.timestamp;
+			}
+		}
+
+		final ByteBuffer audioBuffer = audioFrame.buffer != null ? audioFrame.buffer : ByteBuffer.wrap(audioFrame.data);
 
 		// TODO: Fix "Invalid argument error" from ffmpeg muxer, it is thrown only for the first few writes
 		try {
 			this.ffMpegMuxer.writeAudioSample(audioBuffer, audioFrame.info);
 		} catch (IOException ignored) {
 		}
+
+		this.traceAudio(audioFrame);
+	}
+
+	/**
+	 * Follows a live audio packet with its latency trace when one is due
+	 */
+	private void traceAudio(Frame audioFrame) {
+		final long pts = audioFrame.info.presentationTimeUs;
+
+		// Spliced packets carry file timestamps instead of capture times
+		if (this.tracer == null || this.splicedSource != null
+			|| (audioFrame.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || !this.tracer.isDue(pts)) {
+			return;
+		}
+
+		final LatencyTracer.Trace trace = this.tracer.trace(pts, audioFrame.timestamp, this.encodedAt, System.nanoTime() / 1000);
+
+		try {
+			this.ffMpegMuxer.writeText(trace.toString(), pts);
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * Replaces the audio source until it is exhausted, then returns to live capture.
+	 * Timestamps continue from the current source so the splice is seamless for viewers.
+	 *
+	 * @param source Source to splice in, or null to return to live capture
+	 * @throws IOException If the source cannot be started
+	 */
+	public void splice(FrameSource source) throws IOException {
+		if (this.renditions.length > 0) {
+			throw new IllegalStateException("Splicing is not supported with audio renditions");
+		}
+
+		if (source != null) {
+			this.checkCompatible(source.getFormat());
+			source.start();
+		}
+
+		synchronized (this) {
+			if (this.nextSource != null) {
+				this.nextSource.stop();
+			}
+
+			this.nextSource = source;
+			this.spliceRequested = true;
+		}
+	}
+
+	/**
+	 * Checks that a source can share the audio track configured at start.
+	 * HE-AAC is compared by output sample rate and channels, as the stream profile describes it;
+	 * ADTS sources always read as AAC-LC, so they only match AAC-LC profiles.
+	 */
+	private void checkCompatible(MediaFormat format) {
+		final int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+		final int channelCount = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+		final int aacProfile = format.getInteger(MediaFormat.KEY_AAC_PROFILE);
+
+		if (sampleRate != this.audioProfile.getSampleRate()
+			|| channelCount != this.audioProfile.getChannelCount()
+			|| aacProfile != this.audioProfile.getAac().objectType) {
+			throw new IllegalArgumentException(String.format(
+				"Source format (object type %d, %d Hz, %dch) does not match the stream (%s)",
+				aacProfile, sampleRate, channelCount, this.audioProfile));
+		}
+	}
+
+	private void switchSource(FrameSource source) {
+		if (this.splicedSource != null) {
+			this.splicedSource.stop();
+		}
+
+		this.splicedSource = source;
+		this.spliceEnded = false;
+		this.sourceStart = -1;
+	}
+
+	/**
+	 * Maps a source timestamp onto the output timeline
+	 *
+	 * @param timestamp Source timestamp in microseconds
+	 * @return Output timestamp in microseconds
+	 */
+	private long continueTimestamp(long timestamp) {
+		if (this.sourceStart < 0) {
+			this.sourceStart = timestamp;
+			this.timestampOffset = this.lastTimestamp < 0 ? 0 : this.lastTimestamp + this.lastDuration;
+		}
+
+		final long output = timestamp - this.sourceStart + this.timestampOffset;
+
+		if (this.lastTimestamp >= 0 && output > this.lastTimestamp) {
+			this.lastDuration = output - this.lastTimestamp;
+		}
+
+		this.lastTimestamp = output;
+
+		return output;
 	}
 
 	/**
@@ -54,27 +498,165 @@ public class MasterEncoderChannel extends Worker {
 	 * @throws IOException
 	 */
 	public void startEncoder() throws IOException {
-		// TODO: Make this use the user selected audio source
-		this.audioEncoder = new AudioEncoder(MediaRecorder.AudioSource.DEFAULT);
+		if (this.renditionProfiles.length > 0) {
+			this.checkRenditions();
+		}
+
+		synchronized (this) {
+			this.cpuStart = -1;
+			this.runCpu = -1;
+		}
+
+		// Encoder benchmarks wait for the stream to end, released by stopEncoder once the muxer exists
+		CodecRegistry.getInstance().streamStarted();
+
 		this.ffMpegMuxer = new FFMpegMuxer();
+		this.renditions = new Rendition[this.renditionProfiles.length];
+
+		final int[] renditionTracks = new int[this.renditions.length];
+
+		// TODO: Make this use the user selected audio source
+		if (this.renditions.length == 0) {
+			this.audioEncoder = new AudioEncoder(MediaRecorder.AudioSource.DEFAULT, this.audioProfile);
+			this.ffMpegMuxer.addTrack(this.audioFormat);
+		} else {
+			this.audioCapture = new AudioCapture(MediaRecorder.AudioSource.DEFAULT, this.audioProfile);
+			this.audioEncoder = new AudioEncoder(this.audioCapture, this.audioProfile);
+			this.ffMpegMuxer.addTrack(this.audioFormat);
+
+			for (int i = 0; i < this.renditions.length; i++) {
+				this.renditions[i] = new Rendition(this.audioCapture, this.renditionProfiles[i]);
+				renditionTracks[i] = this.ffMpegMuxer.addTrack(AudioEncoder.getMediaFormat(this.renditionProfiles[i]));
+			}
+		}
+
+		this.ffMpegMuxer.setDestination(this.destination);
+		this.ffMpegMuxer.setOptions(this.streamOptions);
+
+		if (this.videoProfile != null) {
+			this.videoEncoder = new VideoEncoder(this.videoProfile);
+			this.ffMpegMuxer.addTrack(this.videoEncoder.getFormat());
+		}
+
+		this.tracer = this.traceInterval > 0 ? new LatencyTracer(this.traceInterval) : null;
+		if (this.tracer != null) {
+			this.ffMpegMuxer.addTextTrack();
+		}
 
-		this.ffMpegMuxer.addTrack(this.audioFormat);
-		this.ffMpegMuxer.setDestination("rtmp://192.168.0.7/live/STREAM_TEST");
+		// Encoders stamp frames with System.nanoTime() based times, the stream starts at zero from here
+		this.liveOrigin = System.nanoTime() / 1000;
+		this.configured = false;
+		this.videoConfigured = false;
+		this.sourceStart = this.liveOrigin;
+		this.timestampOffset = 0;
+		this.lastTimestamp = -1;
+		this.lastDuration = this.audioProfile.getFrameDurationUs();
+		this.lastVideoTimestamp = -1;
+		this.liveShift = -this.liveOrigin;
+
+		this.droppedChunks = 0;
 
 		this.audioEncoder.start();
+		if (this.videoEncoder != null) {
+			this.videoEncoder.start();
+		}
 		this.ffMpegMuxer.start();
+
+		// Each rendition encodes on its own thread, so the scheduler can spread them across cores
+		for (int i = 0; i < this.renditions.length; i++) {
+			this.renditions[i].startEncoder(this.ffMpegMuxer, renditionTracks[i], this.liveOrigin);
+		}
+
+		// Capture last, so every encoder receives the first chunk
+		if (this.audioCapture != null) {
+			this.audioCapture.start();
+		}
+
+		synchronized (this) {
+			this.cpuStart = Process.getElapsedCpuTime();
+			this.uptimeStart = SystemClock.uptimeMillis();
+		}
+
 		this.start();
 	}
 
+	/**
+	 * Checks that the renditions can be muxed with the primary track, which may have changed since they were set
+	 */
+	private void checkRenditions() throws IOException {
+		if (this.destination == null || !this.destination.contains("http")) {
+			throw new IOException("Audio renditions are only supported for DASH destinations");
+		}
+
+		for (AudioProfile profile : this.renditionProfiles) {
+			if (!this.audioProfile.isFrameAligned(profile)) {
+				throw new IOException(String.format(
+					"Rendition %s is not frame aligned with the stream (%s)", profile, this.audioProfile));
+			}
+		}
+	}
+
 	/**
 	 * Stops all encoders with the worker thread
 	 */
 	public void stopEncoder() {
-		this.stop();
+		if (!this.stopAndJoin(JOIN_TIMEOUT_MS)) {
+			Log.w(TAG, "Channel did not stop in time, stopping its encoders anyway");
+		}
+
+		synchronized (this) {
+			this.switchSource(null);
+
+			if (this.nextSource != null) {
+				this.nextSource.stop();
+				this.nextSource = null;
+			}
+
+			this.spliceRequested = false;
+		}
+
+		// Nothing else was created when the renditions were rejected on start
+		if (this.ffMpegMuxer == null) {
+			return;
+		}
+
+		synchronized (this) {
+			if (this.cpuStart >= 0) {
+				this.runCpu = this.getProcessCpu();
+
+				if (this.renditions.length == 0) {
+					this.baselineCpu = this.runCpu;
+					this.baselineProfile = this.audioProfile;
+				}
+			}
+		}
+
+		for (Rendition rendition : this.renditions) {
+			if (rendition != null) {
+				rendition.stopEncoder();
+			}
+		}
+
+		for (Rendition.Stats stats : this.getRenditionStats()) {
+			Log.i(TAG, "Rendition " + stats);
+		}
+
 		this.ffMpegMuxer.stop();
 		this.audioEncoder.stop();
 
+		if (this.audioCapture != null) {
+			this.audioCapture.stop();
+		}
+
+		if (this.videoEncoder != null) {
+			this.videoEncoder.stop();
+		}
+
 		this.ffMpegMuxer = null;
 		this.audioEncoder = null;
+		this.audioCapture = null;
+		this.videoEncoder = null;
+
+		CodecRegistry.getInstance().streamStopped();
 	}
 }
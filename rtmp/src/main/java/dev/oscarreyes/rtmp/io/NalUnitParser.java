@@ -0,0 +1,198 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * H.264 NAL unit helpers for turning MediaCodec output (Annex-B) into what FLV and MP4 expect (AVCC).
+ * All methods work on absolute positions between the buffer position and limit.
+ */
+public final class NalUnitParser {
+	public static final int TYPE_IDR = 5;
+	public static final int TYPE_SPS = 7;
+	public static final int TYPE_PPS = 8;
+
+	private static final int LENGTH_SIZE = 4;
+
+	private NalUnitParser() {
+	}
+
+	/**
+	 * Finds the next start code
+	 *
+	 * @param buffer Buffer to scan
+	 * @param from   Absolute offset to start scanning at
+	 * @return Absolute offset of the start code, including a leading zero byte for 4 byte codes, or -1
+	 */
+	public static int findStartCode(ByteBuffer buffer, int from) {
+		final int end = buffer.limit() - 2;
+
+		for (int i = from; i < end; i++) {
+			// A start code needs two zeros before the one, so skip ahead on any other value
+			final byte value = buffer.get(i + 2);
+
+			if (value > 1 || value < 0) {
+				i += 2;
+			} else if (value == 1 && buffer.get(i) == 0 && buffer.get(i + 1) == 0) {
+				return i > from && buffer.get(i - 1) == 0 ? i - 1 : i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Splits an Annex-B buffer into NAL unit slices
+	 *
+	 * @param buffer Annex-B buffer
+	 * @return NAL units without start codes, sharing the buffer content
+	 */
+	public static List<ByteBuffer> split(ByteBuffer buffer) {
+		final List<ByteBuffer> units = new ArrayList<>();
+		int start = findStartCode(buffer, buffer.position());
+
+		while (start >= 0) {
+			final int nal = skipStartCode(buffer, start);
+			final int next = findStartCode(buffer, nal);
+			final ByteBuffer unit = buffer.duplicate();
+
+			unit.limit(next < 0 ? buffer.limit() : next);
+			unit.position(nal);
+			units.add(unit.slice());
+
+			start = next;
+		}
+
+		return units;
+	}
+
+	/**
+	 * Gets the type of a NAL unit
+	 *
+	 * @param unit NAL unit without start code
+	 * @return nal_unit_type
+	 */
+	public static int getType(ByteBuffer unit) {
+		return unit.get(unit.position()) & 0x1F;
+	}
+
+	/**
+	 * Builds an AVCDecoderConfigurationRecord from the csd-0 (SPS) and csd-1 (PPS) buffers
+	 * of an encoder output format. Either buffer may hold both parameter sets.
+	 *
+	 * @param csd Codec specific data buffers, in Annex-B format
+	 * @return AVCDecoderConfigurationRecord with 4 byte NAL lengths
+	 */
+	public static byte[] toDecoderConfigurationRecord(ByteBuffer... csd) {
+		final List<ByteBuffer> sps = new ArrayList<>();
+		final List<ByteBuffer> pps = new ArrayList<>();
+		int size = 7;
+
+		for (ByteBuffer buffer : csd) {
+			for (ByteBuffer unit : split(buffer)) {
+				if (getType(unit) == TYPE_SPS) {
+					sps.add(unit);
+				} else if (getType(unit) == TYPE_PPS) {
+					pps.add(unit);
+				} else {
+					continue;
+				}
+
+				size += 2 + unit.remaining();
+			}
+		}
+
+		if (sps.isEmpty() || pps.isEmpty() || sps.get(0).remaining() < 4) {
+			throw new IllegalArgumentException("Codec specific data lacks SPS or PPS");
+		}
+
+		final ByteBuffer record = ByteBuffer.allocate(size);
+		final ByteBuffer first = sps.get(0);
+
+		record.put((byte) 1); // configurationVersion
+		record.put(first.get(1)); // AVCProfileIndication
+		record.put(first.get(2)); // profile_compatibility
+		record.put(first.get(3)); // AVCLevelIndication
+		record.put((byte) (0xFC | (LENGTH_SIZE - 1)));
+		record.put((byte) (0xE0 | sps.size()));
+		putUnits(record, sps);
+		record.put((byte) pps.size());
+		putUnits(record, pps);
+
+		return record.array();
+	}
+
+	private static void putUnits(ByteBuffer record, List<ByteBuffer> units) {
+		for (ByteBuffer unit : units) {
+			record.putShort((short) unit.remaining());
+			record.put(unit.duplicate());
+		}
+	}
+
+	/**
+	 * Converts an Annex-B access unit to AVCC by replacing start codes with 4 byte lengths.
+	 * <p>
+	 * Four byte start codes are overwritten in place. Three byte start codes need one more byte
+	 * each, which is taken from the spare capacity after the limit when there is enough of it;
+	 * only otherwise is a new buffer allocated.
+	 *
+	 * @param buffer Annex-B access unit between position and limit
+	 * @return The converted buffer, the same instance unless it had to grow past its capacity
+	 */
+	public static ByteBuffer annexBToAvcc(ByteBuffer buffer) {
+		final int base = buffer.position();
+		final List<int[]> units = new ArrayList<>();
+		int start = findStartCode(buffer, base);
+		int growth = 0;
+
+		if (start != base) {
+			throw new IllegalArgumentException("Buffer does not start with a start code");
+		}
+
+		while (start >= 0) {
+			final int nal = skipStartCode(buffer, start);
+			final int next = findStartCode(buffer, nal);
+
+			units.add(new int[]{start, nal, next < 0 ? buffer.limit() : next});
+			growth += LENGTH_SIZE - (nal - start);
+			start = next;
+		}
+
+		ByteBuffer target = buffer;
+
+		if (growth > 0 && buffer.capacity() - buffer.limit() < growth) {
+			target = buffer.isDirect()
+				? ByteBuffer.allocateDirect(buffer.limit() + growth)
+				: ByteBuffer.allocate(buffer.limit() + growth);
+		}
+
+		// Units only ever move towards the end, so walking backwards never overwrites unread data
+		int end = base + buffer.remaining() + growth;
+
+		target.limit(end);
+
+		for (int i = units.size() - 1; i >= 0; i--) {
+			final int[] unit = units.get(i);
+			final int length = unit[2] - unit[1];
+			final int destination = end - length;
+
+			if (target != buffer || destination != unit[1]) {
+				for (int j = length - 1; j >= 0; j--) {
+					target.put(destination + j, buffer.get(unit[1] + j));
+				}
+			}
+
+			target.putInt(destination - LENGTH_SIZE, length);
+			end = destination - LENGTH_SIZE;
+		}
+
+		target.position(base);
+
+		return target;
+	}
+
+	private static int skipStartCode(ByteBuffer buffer, int start) {
+		return buffer.get(start + 2) == 1 ? start + 3 : start + 4;
+	}
+}
@@ -0,0 +1,22 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.io.IOException;
+
+/**
+ * Walks the packet boundaries of an encoded media buffer
+ */
+public interface PacketReader {
+	/**
+	 * Gets the audio configuration of the media
+	 * @return AudioSpecificConfig
+	 */
+	AudioSpecificConfig getConfig();
+
+	/**
+	 * Fills the frame with a slice of the next packet, without copying its payload
+	 * @param frame Frame to fill
+	 * @return False once the end of the buffer is reached
+	 * @throws IOException If the media is malformed
+	 */
+	boolean next(Frame frame) throws IOException;
+}
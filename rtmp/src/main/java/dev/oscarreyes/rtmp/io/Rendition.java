@@ -0,0 +1,254 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import dev.oscarreyes.rtmp.async.Worker;
+
+/**
+ * An extra audio rendition, encoded from the PCM of a shared capture on its own thread.
+ * <p>
+ * The capture thread hands over each PCM chunk by reference and never touches it again, so every
+ * rendition copies it only into its own encoder input buffer. A rendition never drops a chunk it
+ * accepted: it waits for its encoder instead, and the capture thread drops chunks for every track
+ * together once a queue is full, so all renditions encode the same audio.
+ */
+public class Rendition extends Worker {
+	private static final String TAG = Rendition.class.getSimpleName();
+
+	/**
+	 * PCM chunks waiting for the encoder, about a third of a second at the minimum capture buffer size
+	 */
+	private static final int QUEUE_SIZE = 16;
+
+	/**
+	 * Longest wait for PCM or a free encoder input buffer, so the output is drained regularly
+	 */
+	private static final long POLL_TIMEOUT_US = 10000;
+
+	/**
+	 * Longest wait in ms for the thread to leave the encoder before it is stopped
+	 */
+	private static final long JOIN_TIMEOUT_MS = 1000;
+
+	/**
+	 * Encoding results of a rendition, for sizing the ladder of a device class
+	 */
+	public static class Stats {
+		public final AudioProfile profile;
+
+		/**
+		 * Name of the encoder used, or null if it was not started
+		 */
+		public final String codec;
+
+		/**
+		 * Encoded frames written to the muxer
+		 */
+		public final long frames;
+
+		/**
+		 * PCM chunks dropped for every track because an encoder fell behind
+		 */
+		public final long dropped;
+
+		/**
+		 * CPU time of the rendition thread per second of streaming, in ms
+		 */
+		public final long feedCpu;
+
+		/**
+		 * Process CPU time the encoder took per second of media in its benchmark, in ms, or -1 if it
+		 * was not benchmarked when the rendition started
+		 */
+		public final long codecCpu;
+
+		/**
+		 * Extra process CPU time per second of streaming compared with a stream of the same profile
+		 * without renditions, in ms and split evenly between the renditions, or -1 before such a stream ran.
+		 * Encoding in the media server (software codecs from Android 10) or hardware is not included.
+		 */
+		public final long extraCpu;
+
+		Stats(AudioProfile profile, String codec, long frames, long dropped, long feedCpu, long codecCpu, long extraCpu) {
+			this.profile = profile;
+			this.codec = codec;
+			this.frames = frames;
+			this.dropped = dropped;
+			this.feedCpu = feedCpu;
+			this.codecCpu = codecCpu;
+			this.extraCpu = extraCpu;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s: %s, %d frames, %d dropped, feed %d ms/s, codec %d ms/s, extra %d ms/s",
+				this.profile, this.codec, this.frames, this.dropped, this.feedCpu, this.codecCpu, this.extraCpu);
+		}
+	}
+
+	private final AudioProfile profile;
+	private final AudioEncoder encoder;
+	private final BlockingQueue<Frame> pcm = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+	private FFMpegMuxer muxer;
+	private int track;
+	private long origin;
+	private boolean configured;
+	private Frame pending;
+	private Frame frame;
+
+	private String codec;
+	private long codecCpu = -1;
+	private volatile long frames;
+	private volatile long cpuTime;
+	private long cpuStart = -1;
+	private long started;
+	private long stopped;
+
+	/**
+	 * @param capture Capture shared with the primary encoder
+	 * @param profile Encoding profile, frame aligned with the capture profile
+	 */
+	public Rendition(AudioCapture capture, AudioProfile profile) {
+		super(TAG + " " + profile);
+
+		this.profile = profile;
+		this.encoder = new AudioEncoder(capture, profile);
+	}
+
+	public AudioProfile getProfile() {
+		return this.profile;
+	}
+
+	/**
+	 * Starts the encoder and its thread
+	 *
+	 * @param muxer  Muxer shared by all renditions
+	 * @param track  Audio track number of the rendition in the muxer
+	 * @param origin Capture time in microseconds that maps to the start of the stream
+	 * @throws IOException If no encoder supports the profile
+	 */
+	public void startEncoder(FFMpegMuxer muxer, int track, long origin) throws IOException {
+		this.muxer = muxer;
+		this.track = track;
+		this.origin = origin;
+		this.configured = false;
+		this.pending = null;
+		this.frames = 0;
+		this.cpuTime = 0;
+		this.cpuStart = -1;
+		this.started = System.nanoTime();
+		this.stopped = 0;
+		this.pcm.clear();
+
+		this.encoder.start();
+
+		// Looked up once, the registry may still be benchmarking the format
+		final CodecScore score = CodecRegistry.getInstance().getScore(AudioEncoder.getMediaFormat(this.profile));
+
+		this.codec = this.encoder.getCodecName();
+		this.codecCpu = score != null && !score.isFailed() && score.name.equals(this.codec) ? score.cpu : -1;
+
+		this.start();
+	}
+
+	/**
+	 * Stops the thread, then the encoder it was using
+	 */
+	public void stopEncoder() {
+		if (!this.stopAndJoin(JOIN_TIMEOUT_MS)) {
+			Log.w(TAG, this.profile + " did not stop in time, stopping its encoder anyway");
+		}
+
+		this.encoder.stop();
+		this.pcm.clear();
+		this.pending = null;
+		this.stopped = System.nanoTime();
+	}
+
+	/**
+	 * Checks whether a PCM chunk can be handed over without dropping it
+	 */
+	public boolean hasRoom() {
+		return this.pcm.remainingCapacity() > 0;
+	}
+
+	/**
+	 * Hands over a PCM chunk read from the shared capture, call only after {@link #hasRoom()}
+	 * from the capture thread, the only one adding chunks
+	 *
+	 * @param input PCM frame, which must not be modified afterwards
+	 */
+	public void offer(Frame input) {
+		this.pcm.offer(input);
+	}
+
+	/**
+	 * Gets the encoding results so far, or of the last run once stopped
+	 *
+	 * @param dropped  Chunks the capture dropped for every track
+	 * @param extraCpu Measured extra process CPU of the rendition, in ms per second, or -1
+	 */
+	Stats getStats(long dropped, long extraCpu) {
+		final long end = this.stopped > 0 ? this.stopped : System.nanoTime();
+		final long elapsed = Math.max(1, (end - this.started) / 1000000);
+
+		return new Stats(this.profile, this.codec, this.frames, dropped, this.cpuTime * 1000 / elapsed, this.codecCpu, extraCpu);
+	}
+
+	@Override
+	protected void capture() throws Exception {
+		// Thread CPU time can only be read from the thread itself
+		final long cpu = Debug.threadCpuTimeNanos() / 1000000;
+
+		if (this.cpuStart < 0) {
+			this.cpuStart = cpu;
+		}
+
+		this.cpuTime = cpu - this.cpuStart;
+
+		// A chunk the encoder had no room for is retried instead of dropped, the queue absorbs the wait
+		if (this.pending == null) {
+			this.pending = this.pcm.poll(POLL_TIMEOUT_US, TimeUnit.MICROSECONDS);
+		}
+
+		if (this.pending != null && this.encoder.queueAudio(this.pending, POLL_TIMEOUT_US)) {
+			this.pending = null;
+		}
+
+		this.frame = this.encoder.getAudioFrame();
+	}
+
+	@Override
+	protected void process() throws Exception {
+		if (this.frame.data == null) {
+			return;
+		}
+
+		if ((this.frame.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+			if (this.configured) {
+				return;
+			}
+
+			this.configured = true;
+		} else {
+			// Same clock and origin as the primary track, so segments of all renditions line up
+			this.frame.info.presentationTimeUs = Math.max(0, this.frame.timestamp - this.origin);
+		}
+
+		try {
+			this.muxer.writeAudioSample(ByteBuffer.wrap(this.frame.data), this.frame.info, this.track);
+			this.frames++;
+		} catch (IOException ignored) {
+		}
+	}
+}
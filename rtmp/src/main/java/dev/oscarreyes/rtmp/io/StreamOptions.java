@@ -0,0 +1,215 @@
+package dev.oscarreyes.rtmp.io;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed FFmpeg muxer and protocol options for a stream.
+ * <p>
+ * Options left unset keep the FFmpeg defaults. Format options are passed to
+ * avformat_write_header, protocol options to avio_open2 (and from there to the RTMP and TCP
+ * protocols).
+ */
+public class StreamOptions {
+	static final int TARGET_NATIVE = 0;
+	static final int TARGET_FORMAT = 1;
+	static final int TARGET_PROTOCOL = 2;
+
+	/**
+	 * An option with its FFmpeg name and value type
+	 *
+	 * @param <T> Value type
+	 */
+	public static final class Key<T> {
+		final String name;
+		final int target;
+
+		private Key(String name, int target) {
+			this.name = name;
+			this.target = target;
+		}
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+
+	/**
+	 * Values of the rtmp_live protocol option
+	 */
+	public enum RtmpLive {
+		ANY("any"),
+		LIVE("live"),
+		RECORDED("recorded");
+
+		final String value;
+
+		RtmpLive(String value) {
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Size in bytes of the buffer between the muxer and the protocol, FFmpeg uses 32 KB
+	 */
+	public static final Key<Integer> AVIO_BUFFER_SIZE = new Key<>("avio_buffer_size", TARGET_NATIVE);
+
+	/**
+	 * Write packets through the interleaving queue, which max_interleave_delta bounds,
+	 * instead of passing them to the muxer in arrival order. Always on with audio renditions.
+	 */
+	public static final Key<Boolean> INTERLEAVED = new Key<>("interleaved", TARGET_NATIVE);
+
+	/**
+	 * Flush the AVIO buffer after every packet, FFmpeg does so by default for network outputs
+	 */
+	public static final Key<Boolean> FLUSH_PACKETS = new Key<>("flush_packets", TARGET_FORMAT);
+
+	/**
+	 * Longest media time in microseconds the AVIO buffer holds output before it is flushed,
+	 * which bounds the delay of a large buffer at low bitrates
+	 */
+	public static final Key<Long> FLUSH_INTERVAL = new Key<>("flush_interval", TARGET_NATIVE);
+
+	/**
+	 * Longest time in microseconds the interleaving queue holds packets waiting for other streams
+	 */
+	public static final Key<Long> MAX_INTERLEAVE_DELTA = new Key<>("max_interleave_delta", TARGET_FORMAT);
+
+	/**
+	 * Client buffer time in ms announced to the server
+	 */
+	public static final Key<Integer> RTMP_BUFFER = new Key<>("rtmp_buffer", TARGET_PROTOCOL);
+
+	/**
+	 * Kind of stream announced to the server
+	 */
+	public static final Key<RtmpLive> RTMP_LIVE = new Key<>("rtmp_live", TARGET_PROTOCOL);
+
+	/**
+	 * TCP socket send buffer size in bytes
+	 */
+	public static final Key<Integer> SEND_BUFFER_SIZE = new Key<>("send_buffer_size", TARGET_PROTOCOL);
+
+	private final Map<Key<?>, Object> values = new LinkedHashMap<>();
+
+	/**
+	 * Options for the lowest delay: every packet is written and flushed as soon as it is
+	 * produced, and small buffers keep data from queueing on the device.
+	 */
+	public static StreamOptions lowLatency() {
+		final StreamOptions options = new StreamOptions();
+
+		options.set(AVIO_BUFFER_SIZE, 4 * 1024);
+		options.set(INTERLEAVED, false);
+		options.set(FLUSH_PACKETS, true);
+		options.set(RTMP_BUFFER, 100);
+		options.set(RTMP_LIVE, RtmpLive.LIVE);
+		options.set(SEND_BUFFER_SIZE, 64 * 1024);
+
+		return options;
+	}
+
+	/**
+	 * Options for the highest throughput: a deep socket buffer rides out uplink stalls and
+	 * packets are interleaved by timestamp.
+	 * <p>
+	 * The large AVIO buffer batches muxer output into fewer protocol writes, but saves no system
+	 * calls, as rtmpproto still sends every RTMP chunk on its own. Unflushed, 64 KB would hold
+	 * around 16 s of 32 kbps audio, so it is flushed after at most a second of media. A sparse
+	 * track, such as latency traces, stalls the interleaving queue for up to the 500 ms
+	 * MAX_INTERLEAVE_DELTA whenever it has no packet queued.
+	 */
+	public static StreamOptions highThroughput() {
+		final StreamOptions options = new StreamOptions();
+
+		options.set(AVIO_BUFFER_SIZE, 64 * 1024);
+		options.set(INTERLEAVED, true);
+		options.set(FLUSH_PACKETS, false);
+		options.set(FLUSH_INTERVAL, 1000000L);
+		options.set(MAX_INTERLEAVE_DELTA, 500000L);
+		options.set(RTMP_BUFFER, 3000);
+		options.set(RTMP_LIVE, RtmpLive.LIVE);
+		options.set(SEND_BUFFER_SIZE, 1024 * 1024);
+
+		return options;
+	}
+
+	/**
+	 * Sets an option
+	 *
+	 * @param key   Option
+	 * @param value Value, or null to restore the default
+	 */
+	public <T> void set(Key<T> key, T value) {
+		if (value == null) {
+			this.values.remove(key);
+		} else {
+			this.values.put(key, value);
+		}
+	}
+
+	/**
+	 * Gets an option
+	 *
+	 * @return The value, or null when the default is used
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Key<T> key) {
+		return (T) this.values.get(key);
+	}
+
+	int getAvioBufferSize() {
+		final Integer size = this.get(AVIO_BUFFER_SIZE);
+
+		return size != null ? size : 0;
+	}
+
+	boolean isInterleaved() {
+		return Boolean.TRUE.equals(this.get(INTERLEAVED));
+	}
+
+	long getFlushInterval() {
+		final Long interval = this.get(FLUSH_INTERVAL);
+
+		return interval != null ? interval : 0;
+	}
+
+	/**
+	 * Flattens the options for one target into FFmpeg dictionary key and value pairs
+	 *
+	 * @param target TARGET_FORMAT or TARGET_PROTOCOL
+	 * @return Alternating keys and values
+	 */
+	String[] toDictionary(int target) {
+		final List<String> pairs = new ArrayList<>();
+
+		for (Map.Entry<Key<?>, Object> entry : this.values.entrySet()) {
+			if (entry.getKey().target != target) {
+				continue;
+			}
+
+			final Object value = entry.getValue();
+
+			pairs.add(entry.getKey().name);
+
+			if (value instanceof Boolean) {
+				pairs.add((Boolean) value ? "1" : "0");
+			} else if (value instanceof RtmpLive) {
+				pairs.add(((RtmpLive) value).value);
+			} else {
+				pairs.add(String.valueOf(value));
+			}
+		}
+
+		return pairs.toArray(new String[0]);
+	}
+
+	@Override
+	public String toString() {
+		return this.values.toString();
+	}
+}
@@ -0,0 +1,187 @@
+package dev.oscarreyes.rtmp.io;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class VideoEncoder implements FrameSource {
+	private static final String CODEC = MediaFormat.MIMETYPE_VIDEO_AVC;
+
+	/**
+	 * Room left after each access unit for start code growth, see NalUnitParser.annexBToAvcc
+	 */
+	private static final int NAL_HEADROOM = 1024;
+
+	private final VideoProfile profile;
+	private final MediaFormat mediaFormat;
+	private MediaCodec encoder;
+	private Surface inputSurface;
+
+	/**
+	 * Reused output buffer, frames are converted to AVCC in it and passed to the muxer in place
+	 */
+	private ByteBuffer frameBuffer;
+
+	/**
+	 * Gets the video media format for H.264
+	 * @param profile Video encoding profile
+	 * @return Video media format
+	 */
+	public static MediaFormat getMediaFormat(VideoProfile profile) {
+		MediaFormat mediaFormat = MediaFormat.createVideoFormat(CODEC, profile.getWidth(), profile.getHeight());
+
+		mediaFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+		mediaFormat.setInteger(MediaFormat.KEY_BIT_RATE, profile.getBitrate());
+		mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, profile.getFrameRate());
+		mediaFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, profile.getKeyFrameInterval());
+
+		// Baseline has no B-frames, the muxer sends packets with DTS equal to PTS
+		mediaFormat.setInteger(MediaFormat.KEY_PROFILE, MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline);
+		mediaFormat.setInteger(MediaFormat.KEY_LEVEL, MediaCodecInfo.CodecProfileLevel.AVCLevel31);
+
+		return mediaFormat;
+	}
+
+	public VideoEncoder(VideoProfile profile) {
+		this.profile = profile;
+		this.mediaFormat = getMediaFormat(profile);
+	}
+
+	@Override
+	public MediaFormat getFormat() {
+		return this.mediaFormat;
+	}
+
+	/**
+	 * Gets the surface to render frames into, available once started
+	 * @return Encoder input surface
+	 */
+	public Surface getInputSurface() {
+		return this.inputSurface;
+	}
+
+	/**
+	 * Gets the codec name for the current video media format
+	 * @return Name of the codec
+	 */
+	private String getCodecName() {
+		return CodecRegistry.getInstance().selectEncoder(this.mediaFormat);
+	}
+
+	/**
+	 * Starts the encoder with the configured media format
+	 * @throws IOException
+	 */
+	@Override
+	public void start() throws IOException {
+		final String codecName = this.getCodecName();
+
+		if (codecName == null) {
+			throw new IOException("No H.264 encoder supports " + this.profile);
+		}
+
+		try {
+			this.encoder = MediaCodec.createByCodecName(codecName);
+
+			this.encoder.configure(this.mediaFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+			this.inputSurface = this.encoder.createInputSurface();
+			this.encoder.start();
+		} catch (IOException e) {
+			throw new IOException("Required video encoder or configuration is not supported by this device", e);
+		}
+	}
+
+	/**
+	 * Stops the encoder and releases the input surface
+	 */
+	@Override
+	public void stop() {
+		if (this.encoder != null) {
+			this.encoder.stop();
+			this.encoder.release();
+
+			this.encoder = null;
+		}
+
+		if (this.inputSurface != null) {
+			this.inputSurface.release();
+
+			this.inputSurface = null;
+		}
+	}
+
+	/**
+	 * Dequeues the next encoded access unit, converted to AVCC.
+	 * The stream configuration is returned once as a codec config frame holding
+	 * the AVCDecoderConfigurationRecord built from csd-0 and csd-1.
+	 * The frame buffer is reused, so a frame must be written before the next read.
+	 * @return Frame object with data information, without data once no output is available
+	 */
+	@Override
+	public Frame read() {
+		final Frame frame = new Frame();
+		final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+		while (true) {
+			final int outputBufferIndex = this.encoder.dequeueOutputBuffer(bufferInfo, 0);
+
+			if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+				final MediaFormat format = this.encoder.getOutputFormat();
+				final byte[] record = NalUnitParser.toDecoderConfigurationRecord(
+					format.getByteBuffer("csd-0"), format.getByteBuffer("csd-1"));
+
+				bufferInfo.set(0, record.length, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+
+				frame.flags = bufferInfo.flags;
+				frame.size = record.length;
+				frame.data = record;
+				frame.info = bufferInfo;
+			} else if (outputBufferIndex >= 0) {
+				// The same parameter sets arrive in the output format, so the in-band copy is skipped
+				if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0 || bufferInfo.size == 0) {
+					this.encoder.releaseOutputBuffer(outputBufferIndex, false);
+					continue;
+				}
+
+				final ByteBuffer output = this.encoder.getOutputBuffer(outputBufferIndex);
+				ByteBuffer buffer = this.obtainFrameBuffer(bufferInfo.size);
+
+				output.position(bufferInfo.offset);
+				output.limit(bufferInfo.offset + bufferInfo.size);
+				buffer.put(output);
+				buffer.flip();
+
+				// Output buffers are read-only, so conversion happens in our buffer after the single copy
+				buffer = NalUnitParser.annexBToAvcc(buffer);
+				bufferInfo.set(0, buffer.remaining(), bufferInfo.presentationTimeUs, bufferInfo.flags);
+
+				frame.flags = bufferInfo.flags;
+				frame.size = bufferInfo.size;
+				frame.timestamp = bufferInfo.presentationTimeUs;
+				frame.buffer = buffer;
+				frame.info = bufferInfo;
+
+				this.encoder.releaseOutputBuffer(outputBufferIndex, false);
+			}
+
+			return frame;
+		}
+	}
+
+	/**
+	 * Gets the reusable direct frame buffer, growing it when a larger access unit arrives
+	 */
+	private ByteBuffer obtainFrameBuffer(int size) {
+		if (this.frameBuffer == null || this.frameBuffer.capacity() < size + NAL_HEADROOM) {
+			this.frameBuffer = ByteBuffer.allocateDirect(size * 2 + NAL_HEADROOM);
+		}
+
+		this.frameBuffer.clear();
+
+		return this.frameBuffer;
+	}
+}
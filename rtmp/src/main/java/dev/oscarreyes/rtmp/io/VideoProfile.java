@@ -0,0 +1,69 @@
+package dev.oscarreyes.rtmp.io;
+
+public class VideoProfile {
+	/**
+	 * 720p at 30 fps, 2.5 Mbps with a key frame every 2 seconds
+	 */
+	public static final VideoProfile HD = new VideoProfile(1280, 720, 30, 2500 * 1000, 2);
+
+	/**
+	 * 480p at 30 fps, 1 Mbps with a key frame every 2 seconds
+	 */
+	public static final VideoProfile SD = new VideoProfile(854, 480, 30, 1000 * 1000, 2);
+
+	private final int width;
+	private final int height;
+	private final int frameRate;
+	private final int bitrate;
+	private final int keyFrameInterval;
+
+	/**
+	 * Creates a video encoding profile
+	 *
+	 * @param width            Width in pixels, even
+	 * @param height           Height in pixels, even
+	 * @param frameRate        Frames per second
+	 * @param bitrate          Bitrate in bps
+	 * @param keyFrameInterval Seconds between key frames
+	 */
+	public VideoProfile(int width, int height, int frameRate, int bitrate, int keyFrameInterval) {
+		if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+			throw new IllegalArgumentException(String.format("Unsupported size %dx%d", width, height));
+		}
+
+		if (frameRate <= 0 || bitrate <= 0 || keyFrameInterval <= 0) {
+			throw new IllegalArgumentException("Frame rate, bitrate and key frame interval must be positive");
+		}
+
+		this.width = width;
+		this.height = height;
+		this.frameRate = frameRate;
+		this.bitrate = bitrate;
+		this.keyFrameInterval = keyFrameInterval;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getFrameRate() {
+		return this.frameRate;
+	}
+
+	public int getBitrate() {
+		return this.bitrate;
+	}
+
+	public int getKeyFrameInterval() {
+		return this.keyFrameInterval;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%dx%d@%d %d bps", this.width, this.height, this.frameRate, this.bitrate);
+	}
+}
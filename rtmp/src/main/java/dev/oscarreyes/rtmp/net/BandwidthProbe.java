@@ -0,0 +1,426 @@
+package dev.oscarreyes.rtmp.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import dev.oscarreyes.rtmp.io.AudioProfile;
+
+/**
+ * Measures the round trip time and achievable upload throughput to an RTMP ingest host.
+ * <p>
+ * The probe connects to the same host and port the stream will publish to, performs the RTMP
+ * handshake (which gives the RTT), connects to the application and creates a stream, waiting
+ * for the server to accept each. It then pushes filler audio messages on the stream ID the server
+ * returned for a short window without publishing, which servers discard. The socket send buffer is kept small so that the measured rate follows what
+ * the link actually drains instead of how fast the kernel can queue.
+ */
+public class BandwidthProbe {
+	public static final int DEFAULT_PORT = 1935;
+	public static final long DEFAULT_DURATION = 2000;
+	public static final double DEFAULT_MARGIN = 0.7;
+
+	private static final int HANDSHAKE_SIZE = 1536;
+	private static final int RTMP_VERSION = 3;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int SEND_BUFFER_SIZE = 16 * 1024;
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	private static final int MSG_SET_CHUNK_SIZE = 1;
+	private static final int MSG_AUDIO = 8;
+	private static final int MSG_COMMAND_AMF0 = 20;
+	private static final int CSID_CONTROL = 2;
+	private static final int CSID_COMMAND = 3;
+	private static final int CSID_AUDIO = 4;
+
+	private static final int TRANSACTION_CONNECT = 1;
+	private static final int TRANSACTION_CREATE_STREAM = 2;
+
+	private static final int AMF0_NUMBER = 0x00;
+	private static final int AMF0_STRING = 0x02;
+	private static final int AMF0_OBJECT = 0x03;
+	private static final int AMF0_NULL = 0x05;
+	private static final int AMF0_OBJECT_END = 0x09;
+
+	private static final Logger log = Logger.getLogger(BandwidthProbe.class.getSimpleName());
+
+	/**
+	 * Probe measurements
+	 */
+	public static class Result {
+		/**
+		 * Handshake round trip time in ms
+		 */
+		public final long rtt;
+
+		/**
+		 * Achieved upload throughput in bps
+		 */
+		public final long bitrate;
+
+		/**
+		 * Filler bytes written during the window
+		 */
+		public final long bytesSent;
+
+		/**
+		 * Length of the measuring window in ms
+		 */
+		public final long duration;
+
+		public Result(long rtt, long bitrate, long bytesSent, long duration) {
+			this.rtt = rtt;
+			this.bitrate = bitrate;
+			this.bytesSent = bytesSent;
+			this.duration = duration;
+		}
+
+		/**
+		 * Picks the highest bitrate profile that fits in the measured capacity
+		 *
+		 * @param profiles Candidate profiles
+		 * @param margin   Fraction of the measured capacity the stream may use
+		 * @return Selected profile, or the lowest bitrate candidate if none fits
+		 */
+		public AudioProfile selectProfile(AudioProfile[] profiles, double margin) {
+			final long budget = (long) (this.bitrate * margin);
+			AudioProfile selected = null;
+			AudioProfile lowest = null;
+
+			for (AudioProfile profile : profiles) {
+				if (lowest == null || profile.getBitrate() < lowest.getBitrate()) {
+					lowest = profile;
+				}
+
+				if (profile.getBitrate() <= budget && (selected == null || profile.getBitrate() > selected.getBitrate())) {
+					selected = profile;
+				}
+			}
+
+			return selected != null ? selected : lowest;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("rtt=%d ms bitrate=%d bps sent=%d bytes in %d ms", this.rtt, this.bitrate, this.bytesSent, this.duration);
+		}
+	}
+
+	private final String host;
+	private final int port;
+	private final String app;
+	private final long duration;
+
+	private volatile Socket socket;
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a probe for an ingest host
+	 *
+	 * @param host     Ingest host
+	 * @param port     Ingest port
+	 * @param app      Application the stream will publish to
+	 * @param duration Measuring window in ms
+	 */
+	public BandwidthProbe(String host, int port, String app, long duration) {
+		this.host = host;
+		this.port = port;
+		this.app = app;
+		this.duration = duration;
+	}
+
+	/**
+	 * Creates a probe for the ingest host of a publishing URL
+	 *
+	 * @param url      RTMP URL the stream will publish to
+	 * @param duration Measuring window in ms
+	 * @return Bandwidth probe
+	 */
+	public static BandwidthProbe forUrl(String url, long duration) {
+		try {
+			final URI uri = new URI(url);
+			final int port = uri.getPort() > 0 ? uri.getPort() : DEFAULT_PORT;
+
+			if (uri.getHost() == null) {
+				throw new IllegalArgumentException("Missing host in " + url);
+			}
+
+			// The application is the first path segment, the rest names the stream
+			final String path = uri.getPath() != null ? uri.getPath() : "";
+			final String[] segments = path.replaceFirst("^/", "").split("/", 2);
+
+			return new BandwidthProbe(uri.getHost(), port, segments[0], duration);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid URL " + url, e);
+		}
+	}
+
+	/**
+	 * Runs the probe, blocking for about the measuring window plus three round trips
+	 *
+	 * @return Probe measurements
+	 * @throws IOException If the server cannot be reached, rejects the connect or createStream, or closes the connection
+	 */
+	public Result run() throws IOException {
+		final Socket socket = new Socket();
+		this.socket = socket;
+
+		try {
+			if (this.cancelled) {
+				throw new IOException("Probe cancelled");
+			}
+
+			socket.setSendBufferSize(SEND_BUFFER_SIZE);
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(CONNECT_TIMEOUT);
+			socket.connect(new InetSocketAddress(this.host, this.port), CONNECT_TIMEOUT);
+
+			final OutputStream out = socket.getOutputStream();
+			final DataInputStream in = new DataInputStream(socket.getInputStream());
+			final long rtt = this.handshake(out, in);
+			final CommandReader replies = new CommandReader(in);
+
+			// Without an accepted connection and stream the server would discard the filler unread
+			out.write(controlMessage(MSG_SET_CHUNK_SIZE, CHUNK_SIZE));
+			out.write(this.connectCommand());
+			out.flush();
+			replies.awaitResult(TRANSACTION_CONNECT);
+
+			out.write(commandMessage(command("createStream", TRANSACTION_CREATE_STREAM, null)));
+			out.flush();
+
+			final List<Object> created = replies.awaitResult(TRANSACTION_CREATE_STREAM);
+
+			if (created.size() < 4 || !(created.get(3) instanceof Double)) {
+				throw new IOException("createStream returned no stream ID: " + created);
+			}
+
+			final int streamId = ((Double) created.get(3)).intValue();
+
+			// Writes only block once the send buffer is full, from then on they follow the rate the link drains.
+			// The size the kernel reports (Linux doubles the requested one) bounds what it can queue.
+			final long fill = socket.getSendBufferSize();
+			final byte[] filler = audioMessage(CHUNK_SIZE, streamId);
+			final long start = System.nanoTime();
+			final long end = start + this.duration * 1000000;
+			long sent = 0;
+			long now = start;
+			long markTime = -1;
+			long markSent = 0;
+
+			while (now < end && !this.cancelled) {
+				out.write(filler);
+				sent += filler.length;
+				now = System.nanoTime();
+
+				if (markTime < 0 && sent >= fill) {
+					markTime = now;
+					markSent = sent;
+				}
+			}
+
+			out.flush();
+
+			// Without a full send buffer nothing was measured, report no capacity
+			final long elapsed = markTime < 0 ? 0 : Math.max(1, (now - markTime) / 1000000);
+			final long bitrate = markTime < 0 ? 0 : (sent - markSent) * 8 * 1000 / elapsed;
+			final Result result = new Result(rtt, bitrate, sent, elapsed);
+
+			log.info(String.format("Probe %s:%d %s", this.host, this.port, result));
+
+			return result;
+		} finally {
+			this.socket = null;
+			socket.close();
+		}
+	}
+
+	/**
+	 * Aborts a running probe from another thread
+	 */
+	public void cancel() {
+		this.cancelled = true;
+
+		final Socket socket = this.socket;
+
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Performs the plain RTMP handshake
+	 *
+	 * @return Time in ms from sending C0+C1 to receiving S0+S1
+	 * @throws IOException
+	 */
+	private long handshake(OutputStream out, DataInputStream in) throws IOException {
+		final byte[] c0c1 = new byte[1 + HANDSHAKE_SIZE];
+		final byte[] s1 = new byte[HANDSHAKE_SIZE];
+		final byte[] s2 = new byte[HANDSHAKE_SIZE];
+
+		new Random().nextBytes(c0c1);
+		c0c1[0] = RTMP_VERSION;
+
+		// Time and zero fields of C1
+		for (int i = 1; i < 9; i++) {
+			c0c1[i] = 0;
+		}
+
+		final long start = System.nanoTime();
+
+		out.write(c0c1);
+		out.flush();
+
+		final int version = in.read();
+		if (version != RTMP_VERSION) {
+			throw new IOException("Unexpected RTMP version " + version);
+		}
+
+		in.readFully(s1);
+
+		final long rtt = (System.nanoTime() - start) / 1000000;
+
+		// C2 echoes S1
+		out.write(s1);
+		out.flush();
+
+		in.readFully(s2);
+
+		return rtt;
+	}
+
+	/**
+	 * Builds a protocol control message carrying a single 32 bit value
+	 */
+	private static byte[] controlMessage(int type, int value) {
+		final byte[] message = new byte[12 + 4];
+
+		writeHeader(message, CSID_CONTROL, 4, type, 0);
+		writeInt(message, 12, value);
+
+		return message;
+	}
+
+	/**
+	 * Builds the connect command for the application of the stream
+	 */
+	private byte[] connectCommand() {
+		final ByteArrayOutputStream properties = new ByteArrayOutputStream();
+
+		writeProperty(properties, "app", this.app);
+		writeProperty(properties, "type", "nonprivate");
+		writeProperty(properties, "tcUrl", String.format("rtmp://%s:%d/%s", this.host, this.port, this.app));
+
+		return commandMessage(command("connect", TRANSACTION_CONNECT, properties.toByteArray()));
+	}
+
+	/**
+	 * Encodes a command with its name, transaction ID and command object
+	 *
+	 * @param properties Encoded command object properties, or null for an AMF0 null
+	 */
+	private static byte[] command(String name, int transaction, byte[] properties) {
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+		writeString(payload, name);
+		payload.write(AMF0_NUMBER);
+		writeLong(payload, Double.doubleToLongBits(transaction));
+
+		if (properties == null) {
+			payload.write(AMF0_NULL);
+		} else {
+			payload.write(AMF0_OBJECT);
+			payload.write(properties, 0, properties.length);
+			payload.write(0);
+			payload.write(0);
+			payload.write(AMF0_OBJECT_END);
+		}
+
+		return payload.toByteArray();
+	}
+
+	/**
+	 * Wraps a command payload in a single chunk on stream 0
+	 */
+	private static byte[] commandMessage(byte[] payload) {
+		final byte[] message = new byte[12 + payload.length];
+
+		writeHeader(message, CSID_COMMAND, payload.length, MSG_COMMAND_AMF0, 0);
+		System.arraycopy(payload, 0, message, 12, payload.length);
+
+		return message;
+	}
+
+	/**
+	 * Builds an audio message on the created stream that fills exactly one chunk.
+	 * The stream is never published, so servers drop the audio and it only counts as received bytes.
+	 */
+	private static byte[] audioMessage(int size, int streamId) {
+		final byte[] message = new byte[12 + size];
+
+		writeHeader(message, CSID_AUDIO, size, MSG_AUDIO, streamId);
+
+		return message;
+	}
+
+	/**
+	 * Writes a type 0 chunk header with zero timestamp
+	 */
+	private static void writeHeader(byte[] buffer, int csid, int length, int type, int streamId) {
+		buffer[0] = (byte) csid;
+		buffer[4] = (byte) (length >> 16);
+		buffer[5] = (byte) (length >> 8);
+		buffer[6] = (byte) length;
+		buffer[7] = (byte) type;
+
+		// The message stream ID is the only little endian field
+		buffer[8] = (byte) streamId;
+		buffer[9] = (byte) (streamId >> 8);
+		buffer[10] = (byte) (streamId >> 16);
+		buffer[11] = (byte) (streamId >> 24);
+	}
+
+	private static void writeProperty(ByteArrayOutputStream out, String name, String value) {
+		final byte[] key = name.getBytes(StandardCharsets.UTF_8);
+
+		out.write(key.length >> 8);
+		out.write(key.length);
+		out.write(key, 0, key.length);
+		writeString(out, value);
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		out.write(AMF0_STRING);
+		out.write(bytes.length >> 8);
+		out.write(bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static void writeLong(ByteArrayOutputStream out, long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (value >> shift));
+		}
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >> 24);
+		buffer[offset + 1] = (byte) (value >> 16);
+		buffer[offset + 2] = (byte) (value >> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+}
@@ -0,0 +1,272 @@
+package dev.oscarreyes.rtmp.net;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the server replies to the commands of a client.
+ * <p>
+ * Chunks are reassembled with every header format and the chunk size the server sets. Messages
+ * other than AMF0 commands, such as window and bandwidth control, are skipped.
+ */
+class CommandReader {
+	private static final int DEFAULT_CHUNK_SIZE = 128;
+	private static final int EXTENDED_TIMESTAMP = 0xFFFFFF;
+
+	private static final int MSG_SET_CHUNK_SIZE = 1;
+	private static final int MSG_COMMAND_AMF0 = 20;
+
+	private static final int AMF0_NUMBER = 0x00;
+	private static final int AMF0_BOOLEAN = 0x01;
+	private static final int AMF0_STRING = 0x02;
+	private static final int AMF0_OBJECT = 0x03;
+	private static final int AMF0_NULL = 0x05;
+	private static final int AMF0_UNDEFINED = 0x06;
+	private static final int AMF0_ECMA_ARRAY = 0x08;
+	private static final int AMF0_OBJECT_END = 0x09;
+	private static final int AMF0_STRICT_ARRAY = 0x0A;
+	private static final int AMF0_LONG_STRING = 0x0C;
+
+	/**
+	 * Header state kept per chunk stream ID
+	 */
+	private static class ChunkStream {
+		int length;
+		int type;
+		boolean extended;
+		byte[] payload;
+		int received;
+	}
+
+	private final DataInputStream in;
+	private final Map<Integer, ChunkStream> streams = new HashMap<>();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	CommandReader(DataInputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Waits for the reply to a command, skipping unrelated commands such as onBWDone
+	 *
+	 * @param transaction Transaction ID of the command
+	 * @return Values of the _result reply, starting with its name
+	 * @throws IOException If the server answers with _error, closes the connection or times out
+	 */
+	List<Object> awaitResult(int transaction) throws IOException {
+		while (true) {
+			final List<Object> values = decodeAll(this.readCommand());
+
+			if (values.size() < 2 || !(values.get(1) instanceof Double) || (Double) values.get(1) != transaction) {
+				continue;
+			}
+
+			if ("_result".equals(values.get(0))) {
+				return values;
+			}
+
+			if ("_error".equals(values.get(0))) {
+				throw new IOException("Command rejected: " + describe(values));
+			}
+		}
+	}
+
+	/**
+	 * Describes an error reply by the code and description of its info object
+	 */
+	private static String describe(List<Object> values) {
+		final Object info = values.size() > 3 ? values.get(3) : null;
+
+		if (info instanceof Map) {
+			return ((Map<?, ?>) info).get("code") + " (" + ((Map<?, ?>) info).get("description") + ")";
+		}
+
+		return values.toString();
+	}
+
+	private byte[] readCommand() throws IOException {
+		while (true) {
+			final ChunkStream stream = this.readChunk();
+
+			if (stream.received < stream.length) {
+				continue;
+			}
+
+			final byte[] payload = stream.payload;
+
+			stream.payload = null;
+
+			if (stream.type == MSG_SET_CHUNK_SIZE && payload.length >= 4) {
+				this.chunkSize = ByteBuffer.wrap(payload).getInt() & 0x7FFFFFFF;
+			} else if (stream.type == MSG_COMMAND_AMF0) {
+				return payload;
+			}
+		}
+	}
+
+	/**
+	 * Reads one chunk into its chunk stream
+	 *
+	 * @return The chunk stream, with a complete payload once every chunk of the message arrived
+	 */
+	private ChunkStream readChunk() throws IOException {
+		final int basic = this.readByte();
+		final int format = basic >> 6;
+		int csid = basic & 0x3F;
+
+		if (csid == 0) {
+			csid = 64 + this.readByte();
+		} else if (csid == 1) {
+			csid = 64 + this.readByte() + this.readByte() * 256;
+		}
+
+		ChunkStream stream = this.streams.get(csid);
+
+		if (stream == null) {
+			if (format != 0) {
+				throw new IOException("First chunk of stream " + csid + " has format " + format);
+			}
+
+			stream = new ChunkStream();
+			this.streams.put(csid, stream);
+		}
+
+		if (format < 3) {
+			final long timestamp = this.readUnsigned(3);
+
+			if (format < 2) {
+				stream.length = (int) this.readUnsigned(3);
+				stream.type = this.readByte();
+			}
+
+			// The message stream ID, commands are answered on stream 0
+			if (format == 0) {
+				this.readUnsigned(4);
+			}
+
+			stream.extended = timestamp == EXTENDED_TIMESTAMP;
+		}
+
+		if (stream.extended) {
+			this.readUnsigned(4);
+		}
+
+		if (stream.payload == null) {
+			stream.payload = new byte[stream.length];
+			stream.received = 0;
+		}
+
+		final int size = Math.min(this.chunkSize, stream.length - stream.received);
+
+		this.in.readFully(stream.payload, stream.received, size);
+		stream.received += size;
+
+		return stream;
+	}
+
+	private int readByte() throws IOException {
+		final int value = this.in.read();
+
+		if (value < 0) {
+			throw new EOFException("Connection closed by the server");
+		}
+
+		return value;
+	}
+
+	private long readUnsigned(int bytes) throws IOException {
+		long value = 0;
+
+		for (int i = 0; i < bytes; i++) {
+			value = (value << 8) | this.readByte();
+		}
+
+		return value;
+	}
+
+	/**
+	 * Decodes the AMF0 values of a command, objects as maps and numbers as doubles
+	 */
+	private static List<Object> decodeAll(byte[] payload) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(payload);
+		final List<Object> values = new ArrayList<>();
+
+		try {
+			while (buffer.hasRemaining()) {
+				values.add(decode(buffer));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated AMF0 command", e);
+		}
+
+		return values;
+	}
+
+	private static Object decode(ByteBuffer buffer) throws IOException {
+		final int type = buffer.get() & 0xFF;
+
+		switch (type) {
+			case AMF0_NUMBER:
+				return buffer.getDouble();
+			case AMF0_BOOLEAN:
+				return buffer.get() != 0;
+			case AMF0_STRING:
+				return readString(buffer, buffer.getShort() & 0xFFFF);
+			case AMF0_LONG_STRING:
+				return readString(buffer, buffer.getInt());
+			case AMF0_OBJECT:
+				return readProperties(buffer);
+			case AMF0_ECMA_ARRAY:
+				buffer.getInt(); // Approximate count, the end marker is authoritative
+				return readProperties(buffer);
+			case AMF0_STRICT_ARRAY: {
+				final int count = buffer.getInt();
+				final List<Object> list = new ArrayList<>();
+
+				for (int i = 0; i < count; i++) {
+					list.add(decode(buffer));
+				}
+
+				return list;
+			}
+			case AMF0_NULL:
+			case AMF0_UNDEFINED:
+				return null;
+			default:
+				throw new IOException("Unsupported AMF0 type " + type);
+		}
+	}
+
+	private static Map<String, Object> readProperties(ByteBuffer buffer) throws IOException {
+		final Map<String, Object> map = new LinkedHashMap<>();
+
+		while (true) {
+			final String key = readString(buffer, buffer.getShort() & 0xFFFF);
+
+			if (key.isEmpty() && (buffer.get(buffer.position()) & 0xFF) == AMF0_OBJECT_END) {
+				buffer.get();
+				return map;
+			}
+
+			map.put(key, decode(buffer));
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, int length) {
+		final byte[] bytes = new byte[length];
+
+		buffer.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -43,12 +43,24 @@ typedef struct OutputStream {
     // Video stream
     AVStream *video;
 
-    // Audio stream
-    AVStream *audio;
+    // Timed text stream
+    AVStream *data;
 
     // Last packet sent
     AVPacket *pkt;
 
+    // Protocol context, set when the muxer writes through a custom sized buffer
+    AVIOContext *io;
+
+    // Write through the interleaving queue
+    int interleaved;
+
+    // Longest media time in microseconds between AVIO flushes, 0 to leave flushing to FFmpeg
+    int64_t flush_interval;
+
+    // PTS in microseconds of the last flush
+    int64_t last_flush;
+
 } OutputStream;
 
 /**
@@ -66,6 +78,136 @@ static void log_packet(const AVFormatContext *fmt_ctx, const AVPacket *pkt) {
          pkt->stream_index, pkt->flags, pkt->size);
 }
 
+/**
+ * Log the options nobody consumed, which usually means a misspelled or unsupported option
+ * @param what Options kind
+ * @param options Remaining options
+ */
+static void log_unused_options(const char *what, AVDictionary *options) {
+    AVDictionaryEntry *entry = NULL;
+
+    while ((entry = av_dict_get(options, "", entry, AV_DICT_IGNORE_SUFFIX)) != NULL) {
+        LOGW("Unused %s option %s=%s", what, entry->key, entry->value);
+    }
+}
+
+/**
+ * Copy options from Java into a dictionary
+ * @param env JVM
+ * @param options Dictionary
+ * @param pairs Alternating keys and values (or NULL)
+ * @return 0 when successful
+ */
+static int set_options(JNIEnv *env, AVDictionary **options, jobjectArray pairs) {
+    jint ret = 0;
+
+    if (pairs == NULL) return 0;
+
+    jsize len = (*env)->GetArrayLength(env, pairs);
+    for (jsize i = 0; i + 1 < len && ret >= 0; i += 2) {
+        jstring key = (jstring) (*env)->GetObjectArrayElement(env, pairs, i);
+        jstring value = (jstring) (*env)->GetObjectArrayElement(env, pairs, i + 1);
+        const char *_key = (*env)->GetStringUTFChars(env, key, 0);
+        const char *_value = (*env)->GetStringUTFChars(env, value, 0);
+
+        ret = av_dict_set(options, _key, _value, 0);
+
+        (*env)->ReleaseStringUTFChars(env, key, _key);
+        (*env)->ReleaseStringUTFChars(env, value, _value);
+        (*env)->DeleteLocalRef(env, key);
+        (*env)->DeleteLocalRef(env, value);
+    }
+
+    return ret;
+}
+
+/**
+ * Forward buffered output to the protocol context
+ * @param opaque Protocol context
+ * @param buf Data
+ * @param size Data size in bytes
+ * @return Bytes written, or a negative error
+ */
+static int forward_packet(void *opaque, uint8_t *buf, int size) {
+    AVIOContext *io = opaque;
+
+    avio_write(io, buf, size);
+
+    return io->error < 0 ? io->error : size;
+}
+
+/**
+ * Forward seeks to the protocol context
+ * @param opaque Protocol context
+ * @param offset Offset
+ * @param whence SEEK_SET, SEEK_CUR, SEEK_END or AVSEEK_SIZE
+ * @return New position, size, or a negative error
+ */
+static int64_t forward_seek(void *opaque, int64_t offset, int whence) {
+    AVIOContext *io = opaque;
+
+    if (whence == AVSEEK_SIZE) return avio_size(io);
+    return avio_seek(io, offset, whence);
+}
+
+/**
+ * Open the output protocol
+ * @param output Output stream
+ * @param url Destination URL
+ * @param buffer_size Muxer side buffer size in bytes, or 0 for the FFmpeg default
+ * @param options Protocol options, consumed entries are removed
+ * @return 0 when successful
+ */
+static int open_io(OutputStream *output, const char *url, jint buffer_size, AVDictionary **options) {
+    AVIOContext *io = NULL;
+    int flags = AVIO_FLAG_WRITE;
+
+    // With a custom buffer the protocol context writes straight through, so data is buffered once
+    if (buffer_size > 0) flags |= AVIO_FLAG_DIRECT;
+
+    int ret = avio_open2(&io, url, flags, NULL, options);
+    if (ret < 0) return ret;
+
+    if (buffer_size <= 0) {
+        output->context->pb = io;
+        return 0;
+    }
+
+    uint8_t *buffer = av_malloc(buffer_size);
+    AVIOContext *pb = NULL;
+    if (buffer != NULL) {
+        pb = avio_alloc_context(buffer, buffer_size, 1, io, NULL, forward_packet, forward_seek);
+    }
+    if (pb == NULL) {
+        av_free(buffer);
+        avio_closep(&io);
+        return AVERROR(ENOMEM);
+    }
+
+    // Muxers only seek back (e.g. to patch the FLV duration) on outputs that really are seekable
+    pb->seekable = io->seekable;
+
+    output->io = io;
+    output->context->pb = pb;
+    return 0;
+}
+
+/**
+ * Map an AAC object type to the FFmpeg profile
+ * @param object_type MPEG-4 audio object type
+ * @return FFmpeg AAC profile
+ */
+static int aac_profile(jint object_type) {
+    switch (object_type) {
+        case 5:
+            return FF_PROFILE_AAC_HE;
+        case 29:
+            return FF_PROFILE_AAC_HE_V2;
+        default:
+            return FF_PROFILE_AAC_LOW;
+    }
+}
+
 /**
  * Add an output video stream
  * @param env JVM
@@ -113,37 +255,100 @@ add_video_stream(JNIEnv *env, jclass cls, jlong id, jint type, jint width, jint
  * @param env JVM
  * @param cls Java class
  * @param id Pointer to output stream
- * @param type Codec type
+ * @param profile AAC object type (as used by MediaCodec)
  * @param sample_rate Sample rate
+ * @param channels Number of channels
  * @param bitrate Bitrate (bps)
  * @return Stream index (or -1 in case of error)
  */
 static jint
-add_audio_stream(JNIEnv *env, jclass cls, jlong id, jint type, jint sample_rate, jint bitrate) {
-    jint ret = 0;
+add_audio_stream(JNIEnv *env, jclass cls, jlong id, jint profile, jint sample_rate, jint channels,
+                 jint bitrate) {
     OutputStream *output = (struct OutputStream *) id;
 
-    // Add audio stream to output
-    output->audio = avformat_new_stream(output->context, NULL);
-    if (output->audio == NULL) {
+    if (channels < 1 || channels > 2) {
+        LOGE("Unsupported audio channel count: %d", channels);
+        return -1;
+    }
+
+    // Add audio stream to output, one per rendition
+    AVStream *stream = avformat_new_stream(output->context, NULL);
+    if (stream == NULL) {
         LOGE("Could not add audio stream");
         return -1;
     }
-    output->audio->index = output->context->nb_streams - 1;
-    output->audio->id = output->audio->index;
-    output->audio->time_base = (AVRational) {1, 1000};
+    stream->index = output->context->nb_streams - 1;
+    stream->id = stream->index;
+    stream->time_base = (AVRational) {1, 1000};
 
     // Set codec params
-    AVCodecParameters *params = output->audio->codecpar;
+    AVCodecParameters *params = stream->codecpar;
     params->codec_type = AVMEDIA_TYPE_AUDIO;
     params->codec_id = AV_CODEC_ID_AAC;
     params->format = AV_SAMPLE_FMT_S16;
+    params->profile = aac_profile(profile);
     params->bit_rate = bitrate;
     params->sample_rate = sample_rate;
-    params->channel_layout = AV_CH_LAYOUT_STEREO;
-    params->channels = av_get_channel_layout_nb_channels(params->channel_layout);
+    params->channel_layout = (uint64_t) av_get_default_channel_layout(channels);
+    params->channels = channels;
+    params->frame_size = params->profile == FF_PROFILE_AAC_LOW ? 1024 : 2048;
+
+    return stream->index;
+}
+
+/**
+ * Add an output timed text stream, muxed as onTextData script tags in FLV
+ * @param env JVM
+ * @param cls Java class
+ * @param id Pointer to output stream
+ * @return Stream index (or -1 in case of error)
+ */
+static jint add_data_stream(JNIEnv *env, jclass cls, jlong id) {
+    OutputStream *output = (struct OutputStream *) id;
+
+    // Add data stream to output
+    output->data = avformat_new_stream(output->context, NULL);
+    if (output->data == NULL) {
+        LOGE("Could not add data stream");
+        return -1;
+    }
+    output->data->index = output->context->nb_streams - 1;
+    output->data->id = output->data->index;
+    output->data->time_base = (AVRational) {1, 1000};
+
+    // Set codec params
+    AVCodecParameters *params = output->data->codecpar;
+    params->codec_type = AVMEDIA_TYPE_DATA;
+    params->codec_id = AV_CODEC_ID_TEXT;
 
-    return output->audio->index;
+    return output->data->index;
+}
+
+/**
+ * Check whether every stream is ready for the header
+ * @param context Format context
+ * @return 1 if every audio and video stream has its codec configuration
+ */
+static int streams_ready(const AVFormatContext *context) {
+    for (unsigned int i = 0; i < context->nb_streams; i++) {
+        const AVCodecParameters *params = context->streams[i]->codecpar;
+        if (params->codec_type != AVMEDIA_TYPE_AUDIO && params->codec_type != AVMEDIA_TYPE_VIDEO) continue;
+        if (params->extradata_size <= 0) return 0;
+    }
+    return 1;
+}
+
+/**
+ * Get an audio stream by index
+ * @param output Output stream
+ * @param index Stream index returned when the stream was added
+ * @return Stream (or NULL if there is no audio stream at that index)
+ */
+static AVStream *get_audio_stream(const OutputStream *output, jint index) {
+    if (index < 0 || index >= (jint) output->context->nb_streams) return NULL;
+    AVStream *stream = output->context->streams[index];
+    if (stream->codecpar->codec_type != AVMEDIA_TYPE_AUDIO) return NULL;
+    return stream;
 }
 
 /**
@@ -166,16 +371,15 @@ write_frame(OutputStream *output, AVStream *stream, jbyte *buffer, jint size, jl
 
     // Write header if not yet sent
     if (pkt == NULL) {
-        if (flags == 2) {
+        if ((flags & 2) && stream->codecpar->extradata == NULL) {
             // Update stream info
             stream->codecpar->extradata_size = size;
-            stream->codecpar->extradata = av_malloc(size);
+            stream->codecpar->extradata = av_mallocz(size + AV_INPUT_BUFFER_PADDING_SIZE);
             memcpy(stream->codecpar->extradata, buffer, size);
         }
 
-        // TODO: Add video package conditional when video is ready
-        // output->video->codecpar->extradata_size > 0
-        if (output->audio->codecpar->extradata_size > 0) {
+        // Wait until every stream has its codec configuration
+        if (streams_ready(context)) {
 
             // Write header
             ret = avformat_write_header(context, &output->options);
@@ -184,6 +388,9 @@ write_frame(OutputStream *output, AVStream *stream, jbyte *buffer, jint size, jl
                 return ret;
             }
 
+            log_unused_options("format", output->options);
+            av_dict_free(&output->options);
+
             pkt = av_packet_alloc();
             output->pkt = pkt;
         }
@@ -204,17 +411,25 @@ write_frame(OutputStream *output, AVStream *stream, jbyte *buffer, jint size, jl
 
     // Set index and flags
     pkt->stream_index = stream->index;
-    if (flags == 1) pkt->flags = AV_PKT_FLAG_KEY;
+    if (flags & 1) pkt->flags = AV_PKT_FLAG_KEY;
     else pkt->flags = 0;
 
     // Send packet
 //    log_packet(context, pkt);
-    ret = av_write_frame(context, pkt);
+    if (output->interleaved) ret = av_interleaved_write_frame(context, pkt);
+    else ret = av_write_frame(context, pkt);
     if (ret < 0) {
         LOGE("Error while writing packet: %s", av_err2str(ret));
         return ret;
     }
 
+    // Bound how long a large buffer holds low bitrate output
+    if (output->flush_interval > 0 && pts - output->last_flush >= output->flush_interval) {
+        avio_flush(context->pb);
+        output->last_flush = pts;
+        if (context->pb->error < 0) return context->pb->error;
+    }
+
     return ret;
 }
 
@@ -245,6 +460,7 @@ write_video(JNIEnv *env, jclass cls, jlong id, jbyteArray *data, jint len, jlong
  * @param env JVM
  * @param cls Java class
  * @param id Pointer to output stream
+ * @param index Audio stream index
  * @param data Payload
  * @param len Payload size in bytes
  * @param pts PTS in microseconds
@@ -252,30 +468,136 @@ write_video(JNIEnv *env, jclass cls, jlong id, jbyteArray *data, jint len, jlong
  * @return error message if any (otherwise null)
  */
 static jstring
-write_audio(JNIEnv *env, jclass cls, jlong id, jbyteArray *data, jint len, jlong pts, jint flags) {
+write_audio(JNIEnv *env, jclass cls, jlong id, jint index, jbyteArray *data, jint len, jlong pts,
+            jint flags) {
+    OutputStream *output = (struct OutputStream *) id;
+    AVStream *stream = get_audio_stream(output, index);
+    if (stream == NULL) return (*env)->NewStringUTF(env, "Stream was not added");
+
     jbyte *_data = (*env)->GetByteArrayElements(env, data, 0);
+    jint ret = write_frame(output, stream, _data, len, pts, flags);
+    (*env)->ReleaseByteArrayElements(env, data, _data, JNI_ABORT);
+
+    if (ret < 0) return (*env)->NewStringUTF(env, av_err2str(ret));
+    return NULL;
+}
+
+/**
+ * Write timed text to the muxer
+ * @param env JVM
+ * @param cls Java class
+ * @param id Pointer to output stream
+ * @param data NUL terminated UTF-8 text
+ * @param len Payload size in bytes, including the terminator
+ * @param pts PTS in microseconds
+ * @return error message if any (otherwise null)
+ */
+static jstring
+write_data(JNIEnv *env, jclass cls, jlong id, jbyteArray *data, jint len, jlong pts) {
     OutputStream *output = (struct OutputStream *) id;
-    jint ret = write_frame(output, output->audio, _data, len, pts, flags);
+    if (output->data == NULL) return (*env)->NewStringUTF(env, "Stream was not added");
+
+    jbyte *_data = (*env)->GetByteArrayElements(env, data, 0);
+    jint ret = write_frame(output, output->data, _data, len, pts, 0);
     (*env)->ReleaseByteArrayElements(env, data, _data, JNI_ABORT);
 
     if (ret < 0) return (*env)->NewStringUTF(env, av_err2str(ret));
     return NULL;
 }
 
+/**
+ * Write encoded packet from a direct buffer to the muxer, without copying it
+ * @param env JVM
+ * @param output Output stream
+ * @param stream Target stream
+ * @param buffer Direct (or memory-mapped) byte buffer
+ * @param offset Payload offset in the buffer
+ * @param len Payload size in bytes
+ * @param pts PTS in microseconds
+ * @param flags Flags
+ * @return error message if any (otherwise null)
+ */
+static jstring
+write_buffer(JNIEnv *env, OutputStream *output, AVStream *stream, jobject buffer, jint offset,
+             jint len, jlong pts, jint flags) {
+    jbyte *_data = (*env)->GetDirectBufferAddress(env, buffer);
+    if (_data == NULL) return (*env)->NewStringUTF(env, "Buffer is not direct");
+    if (stream == NULL) return (*env)->NewStringUTF(env, "Stream was not added");
+
+    jint ret = write_frame(output, stream, _data + offset, len, pts, flags);
+
+    if (ret < 0) return (*env)->NewStringUTF(env, av_err2str(ret));
+    return NULL;
+}
+
+/**
+ * Write encoded video packet from a direct buffer to the muxer
+ * @param env JVM
+ * @param cls Java class
+ * @param id Pointer to output stream
+ * @param buffer Direct byte buffer holding an AVCC access unit
+ * @param offset Payload offset in the buffer
+ * @param len Payload size in bytes
+ * @param pts PTS in microseconds
+ * @param flags Flags (e.g. keyframe)
+ * @return error message if any (otherwise null)
+ */
+static jstring
+write_video_buffer(JNIEnv *env, jclass cls, jlong id, jobject buffer, jint offset, jint len,
+                   jlong pts, jint flags) {
+    OutputStream *output = (struct OutputStream *) id;
+    return write_buffer(env, output, output->video, buffer, offset, len, pts, flags);
+}
+
+/**
+ * Write encoded audio packet from a direct buffer to the muxer
+ * @param env JVM
+ * @param cls Java class
+ * @param id Pointer to output stream
+ * @param index Audio stream index
+ * @param buffer Direct (or memory-mapped) byte buffer
+ * @param offset Payload offset in the buffer
+ * @param len Payload size in bytes
+ * @param pts PTS in microseconds
+ * @param flags Flags (optional)
+ * @return error message if any (otherwise null)
+ */
+static jstring
+write_audio_buffer(JNIEnv *env, jclass cls, jlong id, jint index, jobject buffer, jint offset,
+                   jint len, jlong pts, jint flags) {
+    OutputStream *output = (struct OutputStream *) id;
+    return write_buffer(env, output, get_audio_stream(output, index), buffer, offset, len, pts,
+                        flags);
+}
+
 /**
  * Open connection
  * @param env JVM
  * @param cls Java class
  * @param url Destination URL
  * @param format Output format
+ * @param format_options Muxer options, alternating keys and values (or NULL)
+ * @param protocol_options Protocol options, alternating keys and values (or NULL)
+ * @param buffer_size AVIO buffer size in bytes, or 0 for the FFmpeg default
+ * @param interleaved Write packets through the interleaving queue
+ * @param flush_interval Longest media time in microseconds between AVIO flushes, or 0
  * @return 0 if successful
  */
-static jlong open(JNIEnv *env, jclass cls, jstring *url, jstring *format) {
+static jlong open(JNIEnv *env, jclass cls, jstring *url, jstring *format, jobjectArray format_options,
+                  jobjectArray protocol_options, jint buffer_size, jboolean interleaved,
+                  jlong flush_interval) {
     const char *_url = (*env)->GetStringUTFChars(env, url, 0);
     const char *_format = (*env)->GetStringUTFChars(env, format, 0);
+    AVDictionary *io_options = NULL;
     OutputStream *output = malloc(sizeof(OutputStream));
     output->pkt = NULL;
     output->options = NULL;
+    output->video = NULL;
+    output->data = NULL;
+    output->io = NULL;
+    output->interleaved = interleaved;
+    output->flush_interval = flush_interval;
+    output->last_flush = 0;
 
     // Allocate the output media context
     jint ret = avformat_alloc_output_context2(&output->context, NULL, _format, _url);
@@ -299,22 +621,33 @@ static jlong open(JNIEnv *env, jclass cls, jstring *url, jstring *format) {
             ret -= av_dict_set(&output->options, "window_size", "5", 0);
             ret -= av_dict_set(&output->options, "extra_window_size", "10", 0);
             ret -= av_dict_set(&output->options, "remove_at_exit", "1", 0);
-            ret -= av_dict_set(&output->options, "adaptation_sets", "id=0,streams=v id=1,streams=a", 0);
 
             if (ret < 0) {
                 LOGE("Unable to set streaming options");
             }
         }
 
+        // Caller options override the defaults above
+        if (ret >= 0) {
+            ret = set_options(env, &output->options, format_options);
+            if (ret >= 0) ret = set_options(env, &io_options, protocol_options);
+            if (ret < 0) {
+                LOGE("Unable to set stream options: %s", av_err2str(ret));
+            }
+        }
+
         // Open the output file, if needed
-        if (!(output->format->flags & AVFMT_NOFILE)) {
-            ret = avio_open(&output->context->pb, _url, AVIO_FLAG_WRITE);
+        if (ret >= 0 && !(output->format->flags & AVFMT_NOFILE)) {
+            ret = open_io(output, _url, buffer_size, &io_options);
             if (ret < 0) {
                 LOGE("Could not open '%s': %s", _url, av_err2str(ret));
+            } else {
+                log_unused_options("protocol", io_options);
             }
         }
     }
 
+    av_dict_free(&io_options);
     (*env)->ReleaseStringUTFChars(env, url, _url);
     (*env)->ReleaseStringUTFChars(env, format, _format);
 
@@ -337,7 +670,18 @@ static void close(JNIEnv *env, jclass cls, jlong id) {
         av_packet_free(&output->pkt);
     }
 
+    // Close the output, flushing the custom buffer first when there is one
+    if (output->io != NULL) {
+        avio_flush(output->context->pb);
+        av_freep(&output->context->pb->buffer);
+        avio_context_free(&output->context->pb);
+        avio_closep(&output->io);
+    } else if (!(output->format->flags & AVFMT_NOFILE)) {
+        avio_closep(&output->context->pb);
+    }
+
     // Free the contexts
+    av_dict_free(&output->options);
     avformat_free_context(output->context);
 
     /// Free output stream
@@ -348,11 +692,15 @@ static void close(JNIEnv *env, jclass cls, jlong id) {
  * Exported JNI methods
  */
 static JNINativeMethod export[] = {
-        {"open",             "(Ljava/lang/String;Ljava/lang/String;)J", open},
+        {"open",             "(Ljava/lang/String;Ljava/lang/String;[Ljava/lang/String;[Ljava/lang/String;IZJ)J", open},
         {"addVideoTrack",    "(JIIIIII)I",                              add_video_stream},
-        {"addAudioTrack",    "(JIII)I",                                 add_audio_stream},
+        {"addAudioTrack",    "(JIIII)I",                                add_audio_stream},
+        {"addDataTrack",     "(J)I",                                    add_data_stream},
         {"writeVideoSample", "(J[BIJI)Ljava/lang/String;",              write_video},
-        {"writeAudioSample", "(J[BIJI)Ljava/lang/String;",              write_audio},
+        {"writeAudioSample", "(JI[BIJI)Ljava/lang/String;",             write_audio},
+        {"writeDataSample",  "(J[BIJ)Ljava/lang/String;",               write_data},
+        {"writeVideoBuffer", "(JLjava/nio/ByteBuffer;IIJI)Ljava/lang/String;", write_video_buffer},
+        {"writeAudioBuffer", "(JILjava/nio/ByteBuffer;IIJI)Ljava/lang/String;", write_audio_buffer},
         {"close",            "(J)V",                                    close},
 };
 
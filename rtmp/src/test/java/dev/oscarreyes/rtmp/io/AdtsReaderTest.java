@@ -0,0 +1,171 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class AdtsReaderTest {
+	private static final int FREQUENCY_44100 = 4;
+
+	/**
+	 * Builds an ADTS frame for AAC-LC stereo at 44.1 kHz with a patterned payload
+	 */
+	static byte[] adtsFrame(int payloadSize, boolean crc, int fill) {
+		final int headerSize = crc ? 9 : 7;
+		final int length = headerSize + payloadSize;
+		final byte[] frame = new byte[length];
+
+		frame[0] = (byte) 0xFF;
+		frame[1] = (byte) (crc ? 0xF0 : 0xF1);
+		frame[2] = (byte) ((1 << 6) | (FREQUENCY_44100 << 2)); // Profile LC, channel config high bit 0
+		frame[3] = (byte) ((2 << 6) | ((length >> 11) & 0x03));
+		frame[4] = (byte) (length >> 3);
+		frame[5] = (byte) (((length & 0x07) << 5) | 0x1F);
+		frame[6] = (byte) 0xFC;
+
+		for (int i = headerSize; i < length; i++) {
+			frame[i] = (byte) fill;
+		}
+
+		return frame;
+	}
+
+	@Test
+	public void readsConfigFromFirstHeader() throws IOException {
+		final AdtsReader reader = new AdtsReader(ByteBuffer.wrap(adtsFrame(10, false, 1)));
+
+		assertEquals(2, reader.getConfig().objectType);
+		assertEquals(44100, reader.getConfig().getSampleRate());
+		assertEquals(2, reader.getConfig().channelCount);
+		assertArrayEquals(new byte[]{0x12, 0x10}, reader.getConfig().toBytes());
+	}
+
+	@Test
+	public void slicesFramesWithoutHeaders() throws IOException {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+		stream.write(adtsFrame(10, false, 1));
+		stream.write(adtsFrame(20, true, 2));
+		stream.write(adtsFrame(30, false, 3));
+
+		final ByteBuffer mapped = ByteBuffer.allocateDirect(stream.size());
+
+		mapped.put(stream.toByteArray());
+		mapped.flip();
+
+		final AdtsReader reader = new AdtsReader(mapped);
+		final Frame frame = new Frame();
+
+		assertTrue(reader.next(frame));
+		assertEquals(10, frame.size);
+		assertEquals(0, frame.timestamp);
+		assertTrue(frame.buffer.isDirect());
+		assertEquals(1, frame.buffer.get(0));
+
+		assertTrue(reader.next(frame));
+		assertEquals(20, frame.size);
+		assertEquals(20, frame.buffer.remaining());
+		assertEquals(1024 * 1000000L / 44100, frame.timestamp);
+		assertEquals(2, frame.buffer.get(0));
+
+		assertTrue(reader.next(frame));
+		assertEquals(30, frame.size);
+		assertEquals(2048 * 1000000L / 44100, frame.timestamp);
+
+		assertFalse(reader.next(frame));
+	}
+
+	/**
+	 * Builds a CRC protected ADTS frame holding one raw data block per size, each filled with its index
+	 */
+	static byte[] multiBlockFrame(int... sizes) {
+		final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		final ByteArrayOutputStream positions = new ByteArrayOutputStream();
+
+		for (int i = 0; i < sizes.length; i++) {
+			if (i > 0) {
+				positions.write(blocks.size() >> 8);
+				positions.write(blocks.size());
+			}
+
+			for (int j = 0; j < sizes[i]; j++) {
+				blocks.write(i);
+			}
+
+			blocks.write(0xEE); // Block CRC
+			blocks.write(0xEE);
+		}
+
+		final int length = 7 + positions.size() + 2 + blocks.size();
+		final byte[] frame = adtsFrame(length - 9, true, 0);
+
+		frame[3] = (byte) ((2 << 6) | ((length >> 11) & 0x03));
+		frame[4] = (byte) (length >> 3);
+		frame[5] = (byte) (((length & 0x07) << 5) | 0x1F);
+		frame[6] = (byte) (0xFC | (sizes.length - 1));
+
+		System.arraycopy(positions.toByteArray(), 0, frame, 7, positions.size());
+		System.arraycopy(blocks.toByteArray(), 0, frame, 7 + positions.size() + 2, blocks.size());
+
+		return frame;
+	}
+
+	@Test
+	public void splitsRawDataBlocks() throws IOException {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+		stream.write(multiBlockFrame(10, 20, 30));
+		stream.write(adtsFrame(5, false, 9));
+
+		final AdtsReader reader = new AdtsReader(ByteBuffer.wrap(stream.toByteArray()));
+		final Frame frame = new Frame();
+
+		for (int i = 0; i < 3; i++) {
+			assertTrue(reader.next(frame));
+			assertEquals((i + 1) * 10, frame.size);
+			assertEquals(i, frame.buffer.get(0));
+			assertEquals(i, frame.buffer.get(frame.size - 1));
+			assertEquals(i * 1024 * 1000000L / 44100, frame.timestamp);
+		}
+
+		assertTrue(reader.next(frame));
+		assertEquals(5, frame.size);
+		assertEquals(9, frame.buffer.get(0));
+		assertEquals(3 * 1024 * 1000000L / 44100, frame.timestamp);
+
+		assertFalse(reader.next(frame));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsRawDataBlocksWithoutPositions() throws IOException {
+		final byte[] frame = adtsFrame(20, false, 0);
+
+		frame[6] = (byte) 0xFD; // Two blocks
+
+		new AdtsReader(ByteBuffer.wrap(frame)).next(new Frame());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsLostSync() throws IOException {
+		final byte[] data = adtsFrame(10, false, 0);
+		final byte[] corrupt = new byte[data.length * 2];
+
+		System.arraycopy(data, 0, corrupt, 0, data.length);
+
+		final AdtsReader reader = new AdtsReader(ByteBuffer.wrap(corrupt));
+
+		reader.next(new Frame());
+		reader.next(new Frame());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedFrame() throws IOException {
+		final byte[] data = adtsFrame(10, false, 0);
+
+		new AdtsReader(ByteBuffer.wrap(data, 0, data.length - 1).slice()).next(new Frame());
+	}
+}
@@ -0,0 +1,45 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AudioProfileTest {
+	@Test
+	public void alignsDurationToWholeFrames() {
+		// 5 s at 44.1 kHz is 215.33 AAC-LC frames
+		assertEquals(4992290, AudioProfile.DEFAULT.alignDuration(5000000));
+
+		// 5 s at 32 kHz is 78.125 HE-AAC frames
+		assertEquals(4992000, AudioProfile.VOICE.alignDuration(5000000));
+
+		final AudioProfile profile = new AudioProfile(AudioProfile.Aac.LC, 48000, AudioProfile.CHANNEL_STEREO, 64000);
+
+		// Whole frames are kept, shorter durations still cover one frame
+		assertEquals(64000, profile.alignDuration(64000));
+		assertEquals(21333, profile.alignDuration(1000));
+	}
+
+	@Test
+	public void requiresSameFramingForRenditions() {
+		final AudioProfile low = new AudioProfile(AudioProfile.Aac.LC, 44100, AudioProfile.CHANNEL_STEREO, 64000);
+		final AudioProfile heAac = new AudioProfile(AudioProfile.Aac.HE_V1, 44100, AudioProfile.CHANNEL_STEREO, 48000);
+		final AudioProfile mono = new AudioProfile(AudioProfile.Aac.LC, 44100, AudioProfile.CHANNEL_MONO, 64000);
+		final AudioProfile rate = new AudioProfile(AudioProfile.Aac.LC, 48000, AudioProfile.CHANNEL_STEREO, 64000);
+
+		assertTrue(AudioProfile.DEFAULT.isFrameAligned(low));
+		assertFalse(AudioProfile.DEFAULT.isFrameAligned(heAac));
+		assertFalse(AudioProfile.DEFAULT.isFrameAligned(mono));
+		assertFalse(AudioProfile.DEFAULT.isFrameAligned(rate));
+	}
+
+	@Test
+	public void comparesByValue() {
+		final AudioProfile copy = new AudioProfile(AudioProfile.Aac.LC, 44100, AudioProfile.CHANNEL_STEREO, 128 * 1000);
+
+		assertEquals(AudioProfile.DEFAULT, copy);
+		assertEquals(AudioProfile.DEFAULT.hashCode(), copy.hashCode());
+		assertFalse(AudioProfile.DEFAULT.equals(new AudioProfile(AudioProfile.Aac.LC, 44100, AudioProfile.CHANNEL_STEREO, 64000)));
+		assertFalse(AudioProfile.DEFAULT.equals(null));
+	}
+}
@@ -0,0 +1,68 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class AudioSpecificConfigTest {
+	@Test
+	public void parsesAacLc() throws IOException {
+		final AudioSpecificConfig config = AudioSpecificConfig.parse(ByteBuffer.wrap(new byte[]{0x12, 0x10}), 0);
+
+		assertEquals(AudioSpecificConfig.OBJECT_TYPE_LC, config.objectType);
+		assertEquals(44100, config.getOutputSampleRate());
+		assertEquals(2, config.getOutputChannelCount());
+		assertEquals(-1, config.extensionFrequencyIndex);
+	}
+
+	@Test
+	public void parsesExplicitHeAac() throws IOException {
+		// SBR, 16 kHz core, mono, 32 kHz output, AAC-LC core
+		final byte[] bytes = {0x2C, 0x0A, (byte) 0x88, 0x00};
+		final AudioSpecificConfig config = AudioSpecificConfig.parse(ByteBuffer.wrap(bytes), 0);
+
+		assertEquals(AudioSpecificConfig.OBJECT_TYPE_SBR, config.objectType);
+		assertEquals(16000, config.getSampleRate());
+		assertEquals(32000, config.getOutputSampleRate());
+		assertEquals(1, config.getOutputChannelCount());
+		assertArrayEquals(bytes, config.toBytes());
+	}
+
+	@Test
+	public void parsesExplicitParametricStereo() throws IOException {
+		final AudioSpecificConfig written = new AudioSpecificConfig(AudioSpecificConfig.OBJECT_TYPE_PS, 7, 1, 4);
+		final AudioSpecificConfig config = AudioSpecificConfig.parse(ByteBuffer.wrap(written.toBytes()), 0);
+
+		assertEquals(AudioSpecificConfig.OBJECT_TYPE_PS, config.objectType);
+		assertEquals(22050, config.getSampleRate());
+		assertEquals(44100, config.getOutputSampleRate());
+		assertEquals(2, config.getOutputChannelCount());
+	}
+
+	@Test
+	public void parsesBackwardCompatibleSignalling() throws IOException {
+		// AAC-LC 22.05 kHz stereo, then sync extension 0x2B7 with SBR present at 44.1 kHz and PS present
+		final long bits = (2L << 51) | (7L << 47) | (2L << 43)
+			| (0x2B7L << 29) | (5L << 24) | (1L << 23) | (4L << 19)
+			| (0x548L << 8) | (1L << 7);
+		final byte[] bytes = new byte[7];
+
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) (bits >> (48 - i * 8));
+		}
+
+		final AudioSpecificConfig config = AudioSpecificConfig.parse(ByteBuffer.wrap(bytes), 0);
+
+		assertEquals(AudioSpecificConfig.OBJECT_TYPE_PS, config.objectType);
+		assertEquals(44100, config.getOutputSampleRate());
+		assertEquals(2, config.getOutputChannelCount());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedExtension() throws IOException {
+		AudioSpecificConfig.parse(ByteBuffer.wrap(new byte[]{0x2C, 0x0A}), 0);
+	}
+}
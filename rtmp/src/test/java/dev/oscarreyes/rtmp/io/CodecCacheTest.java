@@ -0,0 +1,105 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CodecCacheTest {
+	private static final String FORMAT = "audio/mp4a-latm/2/44100/2";
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		this.file = File.createTempFile("codec-scores", ".properties");
+		this.file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	@Test
+	public void persistsScoresForTheSameBuild() {
+		final CodecCache cache = new CodecCache(this.file, "build-1");
+
+		cache.put(FORMAT, new CodecScore("c2.vendor.aac.encoder", true, 21000, 4, 260));
+		cache.put(FORMAT, CodecScore.failed("OMX.broken.aac", false));
+		cache.save();
+
+		final CodecCache loaded = new CodecCache(this.file, "build-1");
+
+		loaded.load();
+
+		final CodecScore score = loaded.get(FORMAT, "c2.vendor.aac.encoder");
+
+		assertNotNull(score);
+		assertTrue(score.hardware);
+		assertEquals(21000, score.latency);
+		assertEquals(4, score.cpu);
+		assertEquals(260, score.wall);
+		assertTrue(loaded.get(FORMAT, "OMX.broken.aac").isFailed());
+		assertNull(loaded.get("video/avc/1280x720@30/2500000/1", "c2.vendor.aac.encoder"));
+	}
+
+	@Test
+	public void discardsScoresFromAnotherBuild() {
+		final CodecCache cache = new CodecCache(this.file, "build-1");
+
+		cache.put(FORMAT, new CodecScore("c2.android.aac.encoder", false, 9000, 30, 255));
+		cache.save();
+
+		final CodecCache updated = new CodecCache(this.file, "build-2");
+
+		updated.load();
+
+		assertNull(updated.get(FORMAT, "c2.android.aac.encoder"));
+	}
+
+	@Test
+	public void toleratesMissingFile() {
+		final CodecCache cache = new CodecCache(this.file, "build-1");
+
+		cache.load();
+
+		assertNull(cache.get(FORMAT, "c2.android.aac.encoder"));
+	}
+
+	@Test
+	public void ranksByLatencyThenCpu() {
+		final List<CodecScore> scores = new ArrayList<>();
+
+		scores.add(CodecScore.failed("broken.hw", true));
+		scores.add(new CodecScore("slow.hw", true, 40000, 2, 250));
+		scores.add(new CodecScore("fast.sw", false, 8000, 35, 250));
+		scores.add(new CodecScore("fast.hw", true, 8000, 3, 250));
+
+		Collections.sort(scores);
+
+		assertEquals("fast.hw", scores.get(0).name);
+		assertEquals("fast.sw", scores.get(1).name);
+		assertEquals("slow.hw", scores.get(2).name);
+		assertEquals("broken.hw", scores.get(3).name);
+	}
+
+	@Test
+	public void prefersHardwareWhenAllFailed() {
+		final List<CodecScore> scores = new ArrayList<>();
+
+		scores.add(CodecScore.failed("software", false));
+		scores.add(CodecScore.failed("hardware", true));
+
+		Collections.sort(scores);
+
+		assertEquals("hardware", scores.get(0).name);
+	}
+}
@@ -0,0 +1,95 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FlvReaderTest {
+	private static final int TAG_AUDIO = 8;
+	private static final int TAG_SCRIPT = 18;
+
+	private static void writeTag(ByteArrayOutputStream out, int type, long timestamp, byte[] body) {
+		out.write(type);
+		out.write(body.length >> 16);
+		out.write(body.length >> 8);
+		out.write(body.length);
+		out.write((int) (timestamp >> 16));
+		out.write((int) (timestamp >> 8));
+		out.write((int) timestamp);
+		out.write((int) (timestamp >> 24));
+		out.write(0);
+		out.write(0);
+		out.write(0);
+		out.write(body, 0, body.length);
+
+		final int size = 11 + body.length;
+
+		out.write(size >> 24);
+		out.write(size >> 16);
+		out.write(size >> 8);
+		out.write(size);
+	}
+
+	private static byte[] flvFile() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		out.write('F');
+		out.write('L');
+		out.write('V');
+		out.write(1);
+		out.write(0x04);
+		out.write(new byte[]{0, 0, 0, 9, 0, 0, 0, 0}, 0, 8);
+
+		writeTag(out, TAG_SCRIPT, 0, new byte[]{2, 0, 0});
+		writeTag(out, TAG_AUDIO, 0, new byte[]{(byte) 0xAF, 0x00, 0x2C, 0x0A, (byte) 0x88, 0x00});
+		writeTag(out, TAG_AUDIO, 0, new byte[]{(byte) 0xAF, 0x01, 1, 1, 1});
+		writeTag(out, TAG_AUDIO, 64, new byte[]{(byte) 0xAF, 0x01, 2, 2});
+		writeTag(out, TAG_AUDIO, 0x1000000, new byte[]{(byte) 0xAF, 0x01, 3});
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void readsConfigFromSequenceHeader() throws IOException {
+		final FlvReader reader = new FlvReader(ByteBuffer.wrap(flvFile()));
+
+		assertEquals(5, reader.getConfig().objectType);
+		assertEquals(16000, reader.getConfig().getSampleRate());
+		assertEquals(32000, reader.getConfig().getOutputSampleRate());
+		assertEquals(1, reader.getConfig().channelCount);
+	}
+
+	@Test
+	public void slicesAacPacketsAndSkipsOtherTags() throws IOException {
+		final FlvReader reader = new FlvReader(ByteBuffer.wrap(flvFile()));
+		final Frame frame = new Frame();
+
+		assertTrue(reader.next(frame));
+		assertEquals(2, frame.flags);
+		assertEquals(4, frame.size);
+
+		assertTrue(reader.next(frame));
+		assertEquals(0, frame.flags);
+		assertEquals(3, frame.size);
+		assertEquals(1, frame.buffer.get(0));
+
+		assertTrue(reader.next(frame));
+		assertEquals(64000, frame.timestamp);
+		assertEquals(2, frame.buffer.get(0));
+
+		assertTrue(reader.next(frame));
+		assertEquals(0x1000000 * 1000L, frame.timestamp);
+		assertEquals(1, frame.buffer.remaining());
+
+		assertFalse(reader.next(frame));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsNonFlv() throws IOException {
+		new FlvReader(ByteBuffer.wrap(new byte[16]));
+	}
+}
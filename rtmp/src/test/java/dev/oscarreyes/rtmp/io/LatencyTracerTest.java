@@ -0,0 +1,55 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyTracerTest {
+	@Test
+	public void tracesOncePerInterval() {
+		final LatencyTracer tracer = new LatencyTracer(1000);
+
+		assertTrue(tracer.isDue(0));
+		tracer.trace(0, 0, 0, 0);
+
+		assertFalse(tracer.isDue(999999));
+		assertTrue(tracer.isDue(1000000));
+	}
+
+	@Test
+	public void convertsStagesToWallClock() {
+		final long before = System.currentTimeMillis() * 1000;
+		final LatencyTracer tracer = new LatencyTracer(1000);
+		final long now = System.nanoTime() / 1000;
+		final LatencyTracer.Trace trace = tracer.trace(0, now - 3000, now - 1000, now);
+		final long after = System.currentTimeMillis() * 1000;
+
+		assertTrue(trace.mux >= before - 1000 && trace.mux <= after + 1000);
+		assertEquals(2000, trace.encode - trace.capture);
+		assertEquals(1000, trace.mux - trace.encode);
+	}
+
+	@Test
+	public void parsesItsOwnText() {
+		final LatencyTracer tracer = new LatencyTracer(1000);
+
+		tracer.trace(0, 1, 2, 3);
+
+		final LatencyTracer.Trace trace = tracer.trace(1000000, 10, 20, 30);
+		final LatencyTracer.Trace parsed = LatencyTracer.parse(trace.toString());
+
+		assertNotNull(parsed);
+		assertEquals(1, parsed.sequence);
+		assertEquals(1000000, parsed.pts);
+		assertEquals(trace.capture, parsed.capture);
+		assertEquals(trace.encode, parsed.encode);
+		assertEquals(trace.mux, parsed.mux);
+	}
+
+	@Test
+	public void rejectsOtherText() {
+		assertNull(LatencyTracer.parse("hello"));
+		assertNull(LatencyTracer.parse("seq=1;pts=2;capture=3;encode=4;demux=5"));
+		assertNull(LatencyTracer.parse("seq=1;pts=x;capture=3;encode=4;mux=5"));
+	}
+}
@@ -0,0 +1,211 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NalUnitParserTest {
+	private static final byte[] START_CODE_3 = {0, 0, 1};
+	private static final byte[] START_CODE_4 = {0, 0, 0, 1};
+
+	/**
+	 * Slowest accepted conversion, in MB/s: over a hundred times a 2.5 Mbps stream, with room for slow build machines
+	 */
+	private static final double MIN_THROUGHPUT_MB_S = 50;
+
+	// Baseline 3.1 parameter sets as emitted by a hardware encoder for 1280x720
+	private static final byte[] SPS = {
+		0x67, 0x42, (byte) 0xC0, 0x1F, (byte) 0xDA, 0x01, 0x40, 0x16, (byte) 0xE8, 0x40,
+		0x00, 0x00, 0x03, 0x00, 0x40, 0x00, 0x00, 0x0F, 0x23, (byte) 0xC6, 0x0C, (byte) 0xA8
+	};
+	private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+
+	/**
+	 * Builds an IDR slice with a patterned payload free of start code emulation
+	 */
+	static byte[] idr(int size) {
+		final byte[] unit = new byte[size];
+
+		unit[0] = 0x65;
+		for (int i = 1; i < size; i++) {
+			unit[i] = (byte) (0x10 + i % 0xE0);
+		}
+
+		return unit;
+	}
+
+	private static byte[] annexB(byte[][] startCodes, byte[]... units) throws IOException {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+		for (int i = 0; i < units.length; i++) {
+			stream.write(startCodes[i % startCodes.length]);
+			stream.write(units[i]);
+		}
+
+		return stream.toByteArray();
+	}
+
+	private static byte[] prefix(byte[] unit) {
+		final byte[] prefixed = new byte[START_CODE_4.length + unit.length];
+
+		System.arraycopy(START_CODE_4, 0, prefixed, 0, START_CODE_4.length);
+		System.arraycopy(unit, 0, prefixed, START_CODE_4.length, unit.length);
+
+		return prefixed;
+	}
+
+	private static byte[] avcc(byte[]... units) {
+		int size = 0;
+		for (byte[] unit : units) {
+			size += 4 + unit.length;
+		}
+
+		final ByteBuffer buffer = ByteBuffer.allocate(size);
+		for (byte[] unit : units) {
+			buffer.putInt(unit.length);
+			buffer.put(unit);
+		}
+
+		return buffer.array();
+	}
+
+	private static ByteBuffer direct(byte[] content, int headroom) {
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(content.length + headroom);
+
+		buffer.put(content);
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private static byte[] remaining(ByteBuffer buffer) {
+		final byte[] content = new byte[buffer.remaining()];
+
+		buffer.duplicate().get(content);
+
+		return content;
+	}
+
+	@Test
+	public void findsThreeAndFourByteStartCodes() {
+		final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, 0, 0, 1, 0x68});
+
+		assertEquals(0, NalUnitParser.findStartCode(buffer, 0));
+		assertEquals(6, NalUnitParser.findStartCode(buffer, 4));
+		assertEquals(-1, NalUnitParser.findStartCode(buffer, 7));
+	}
+
+	@Test
+	public void ignoresEmulationPrevention() {
+		// 00 00 03 inside the SPS must not be taken for a start code
+		final List<ByteBuffer> units = NalUnitParser.split(ByteBuffer.wrap(prefix(SPS)));
+
+		assertEquals(1, units.size());
+		assertArrayEquals(SPS, remaining(units.get(0)));
+	}
+
+	@Test
+	public void buildsDecoderConfigurationRecord() throws IOException {
+		final byte[] record = NalUnitParser.toDecoderConfigurationRecord(
+			ByteBuffer.wrap(prefix(SPS)), ByteBuffer.wrap(annexB(new byte[][]{START_CODE_3}, PPS)));
+
+		assertEquals(7 + 2 + SPS.length + 2 + PPS.length, record.length);
+		assertEquals(1, record[0]);
+		assertEquals(0x42, record[1]);
+		assertEquals((byte) 0xC0, record[2]);
+		assertEquals(0x1F, record[3]);
+		assertEquals((byte) 0xFF, record[4]);
+		assertEquals((byte) 0xE1, record[5]);
+		assertEquals(SPS.length, record[7]);
+		assertEquals(1, record[8 + SPS.length]);
+		assertEquals(PPS.length, record[10 + SPS.length]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsConfigWithoutPps() {
+		NalUnitParser.toDecoderConfigurationRecord(ByteBuffer.wrap(prefix(SPS)));
+	}
+
+	@Test
+	public void convertsFourByteStartCodesInPlace() throws IOException {
+		final byte[] slice = idr(300);
+		final ByteBuffer buffer = direct(annexB(new byte[][]{START_CODE_4}, SPS, PPS, slice), 0);
+		final ByteBuffer converted = NalUnitParser.annexBToAvcc(buffer);
+
+		assertSame(buffer, converted);
+		assertArrayEquals(avcc(SPS, PPS, slice), remaining(converted));
+	}
+
+	@Test
+	public void convertsThreeByteStartCodesIntoHeadroom() throws IOException {
+		final byte[] slice = idr(300);
+		final ByteBuffer buffer = direct(annexB(new byte[][]{START_CODE_3, START_CODE_4}, SPS, PPS, slice), 16);
+		final ByteBuffer converted = NalUnitParser.annexBToAvcc(buffer);
+
+		assertSame(buffer, converted);
+		assertArrayEquals(avcc(SPS, PPS, slice), remaining(converted));
+	}
+
+	@Test
+	public void growsWhenHeadroomIsShort() throws IOException {
+		final byte[] slice = idr(300);
+		final ByteBuffer buffer = direct(annexB(new byte[][]{START_CODE_3}, SPS, PPS, slice), 2);
+		final ByteBuffer converted = NalUnitParser.annexBToAvcc(buffer);
+
+		assertNotSame(buffer, converted);
+		assertTrue(converted.isDirect());
+		assertArrayEquals(avcc(SPS, PPS, slice), remaining(converted));
+	}
+
+	/**
+	 * Measures the conversion throughput of an access unit, apart from the copy that restores it before each run
+	 *
+	 * @return Converted MB (10^6 bytes) per second
+	 */
+	private static double benchmark(byte[][] startCodes, byte[]... units) throws IOException {
+		final byte[] frame = annexB(startCodes, units);
+		final ByteBuffer buffer = direct(frame, 16);
+		final int iterations = 20000;
+		long converting = 0;
+
+		for (int i = 0; i < 1000 + iterations; i++) {
+			buffer.clear();
+			buffer.put(frame).flip();
+
+			final long start = System.nanoTime();
+			final ByteBuffer converted = NalUnitParser.annexBToAvcc(buffer);
+			final long end = System.nanoTime();
+
+			assertSame(buffer, converted);
+
+			// The first runs warm up the JIT
+			if (i >= 1000) {
+				converting += end - start;
+			}
+		}
+
+		assertArrayEquals(avcc(units), remaining(buffer));
+
+		return (double) frame.length * iterations / Math.max(1, converting) * 1e3;
+	}
+
+	@Test
+	public void benchmarkConversion() throws IOException {
+		// A 2.5 Mbps 30 fps stream averages around 10 KB per access unit
+		final double fourByteCodes = benchmark(new byte[][]{START_CODE_4}, idr(10 * 1024));
+
+		// Encoders that split frames into slices usually start the later ones with 3 byte codes
+		final double threeByteCodes = benchmark(new byte[][]{START_CODE_4, START_CODE_3},
+			idr(2560), idr(2560), idr(2560), idr(2560));
+
+		assertTrue(String.format("4 byte start codes converted at %.1f MB/s", fourByteCodes),
+			fourByteCodes >= MIN_THROUGHPUT_MB_S);
+		assertTrue(String.format("3 byte start codes converted at %.1f MB/s", threeByteCodes),
+			threeByteCodes >= MIN_THROUGHPUT_MB_S);
+	}
+}
@@ -0,0 +1,68 @@
+package dev.oscarreyes.rtmp.io;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamOptionsTest {
+	@Test
+	public void defaultsPassNothing() {
+		final StreamOptions options = new StreamOptions();
+
+		assertEquals(0, options.toDictionary(StreamOptions.TARGET_FORMAT).length);
+		assertEquals(0, options.toDictionary(StreamOptions.TARGET_PROTOCOL).length);
+		assertEquals(0, options.getAvioBufferSize());
+		assertEquals(0, options.getFlushInterval());
+		assertFalse(options.isInterleaved());
+	}
+
+	@Test
+	public void splitsOptionsByTarget() {
+		final StreamOptions options = new StreamOptions();
+
+		options.set(StreamOptions.FLUSH_PACKETS, false);
+		options.set(StreamOptions.MAX_INTERLEAVE_DELTA, 250000L);
+		options.set(StreamOptions.RTMP_LIVE, StreamOptions.RtmpLive.RECORDED);
+		options.set(StreamOptions.SEND_BUFFER_SIZE, 8192);
+		options.set(StreamOptions.AVIO_BUFFER_SIZE, 2048);
+
+		assertArrayEquals(new String[]{"flush_packets", "0", "max_interleave_delta", "250000"},
+			options.toDictionary(StreamOptions.TARGET_FORMAT));
+		assertArrayEquals(new String[]{"rtmp_live", "recorded", "send_buffer_size", "8192"},
+			options.toDictionary(StreamOptions.TARGET_PROTOCOL));
+		assertEquals(2048, options.getAvioBufferSize());
+	}
+
+	@Test
+	public void nullRestoresDefault() {
+		final StreamOptions options = StreamOptions.lowLatency();
+
+		options.set(StreamOptions.FLUSH_PACKETS, null);
+
+		assertNull(options.get(StreamOptions.FLUSH_PACKETS));
+		assertFalse(Arrays.asList(options.toDictionary(StreamOptions.TARGET_FORMAT)).contains("flush_packets"));
+	}
+
+	@Test
+	public void presetsTradeBufferingForThroughput() {
+		final StreamOptions lowLatency = StreamOptions.lowLatency();
+		final StreamOptions highThroughput = StreamOptions.highThroughput();
+		final List<String> lowLatencyFormat = Arrays.asList(lowLatency.toDictionary(StreamOptions.TARGET_FORMAT));
+
+		assertTrue(lowLatency.getAvioBufferSize() < highThroughput.getAvioBufferSize());
+		assertTrue(lowLatency.get(StreamOptions.SEND_BUFFER_SIZE) < highThroughput.get(StreamOptions.SEND_BUFFER_SIZE));
+		assertTrue(lowLatency.get(StreamOptions.FLUSH_PACKETS));
+		assertFalse(highThroughput.get(StreamOptions.FLUSH_PACKETS));
+		assertFalse(lowLatency.isInterleaved());
+		assertTrue(highThroughput.isInterleaved());
+
+		// 64 KB flushed every second holds at most a second of media, whatever the bitrate
+		assertEquals(0, lowLatency.getFlushInterval());
+		assertEquals(1000000, highThroughput.getFlushInterval());
+		assertFalse(Arrays.asList(highThroughput.toDictionary(StreamOptions.TARGET_FORMAT)).contains("flush_interval"));
+		assertFalse(lowLatencyFormat.contains("max_interleave_delta"));
+	}
+}
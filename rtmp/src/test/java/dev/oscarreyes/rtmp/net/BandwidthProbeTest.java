@@ -0,0 +1,121 @@
+package dev.oscarreyes.rtmp.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import dev.oscarreyes.rtmp.io.AudioProfile;
+import dev.oscarreyes.rtmp.server.IngestServer;
+import dev.oscarreyes.rtmp.server.Recording;
+import dev.oscarreyes.rtmp.server.RtmpMessage;
+
+import static org.junit.Assert.*;
+
+public class BandwidthProbeTest {
+	private IngestServer server;
+
+	@Before
+	public void setUp() {
+		this.server = new IngestServer();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.server.close();
+	}
+
+	@Test
+	public void measuresShapedBandwidth() throws IOException {
+		this.server.setBandwidth(2 * 1000 * 1000);
+		this.server.start();
+
+		final BandwidthProbe.Result result = new BandwidthProbe("127.0.0.1", this.server.getPort(), "live", 1500).run();
+
+		assertTrue("Bitrate " + result.bitrate, result.bitrate > 1500 * 1000 && result.bitrate < 3000 * 1000);
+	}
+
+	@Test
+	public void measuresRoundTripTime() throws IOException {
+		this.server.setLatency(100);
+		this.server.start();
+
+		final BandwidthProbe.Result result = new BandwidthProbe("127.0.0.1", this.server.getPort(), "live", 100).run();
+
+		assertTrue("RTT " + result.rtt, result.rtt >= 100);
+	}
+
+	@Test
+	public void sendsFillerOnCreatedStreamWithoutPublishing() throws Exception {
+		this.server.start();
+
+		BandwidthProbe.forUrl(this.server.getUrl("live", "probe"), 200).run();
+
+		final Recording recording = this.server.getRecordings().get(0);
+
+		assertTrue(recording.awaitClosed(2, TimeUnit.SECONDS));
+		assertEquals("live", recording.getApp());
+		assertNull(recording.getStreamName());
+		assertFalse(recording.getMessages(RtmpMessage.AUDIO).isEmpty());
+
+		for (RtmpMessage message : recording.getMessages(RtmpMessage.AUDIO)) {
+			assertEquals(1, message.streamId);
+		}
+	}
+
+	@Test
+	public void sendsFillerOnReturnedStreamId() throws Exception {
+		this.server.setStreamId(7);
+		this.server.start();
+
+		new BandwidthProbe("127.0.0.1", this.server.getPort(), "live", 200).run();
+
+		final Recording recording = this.server.getRecordings().get(0);
+
+		assertTrue(recording.awaitClosed(2, TimeUnit.SECONDS));
+		assertFalse(recording.getMessages(RtmpMessage.AUDIO).isEmpty());
+
+		for (RtmpMessage message : recording.getMessages(RtmpMessage.AUDIO)) {
+			assertEquals(7, message.streamId);
+		}
+	}
+
+	@Test
+	public void failsWhenConnectIsRejected() throws Exception {
+		this.server.setRejectConnect(true);
+		this.server.start();
+
+		try {
+			new BandwidthProbe("127.0.0.1", this.server.getPort(), "live", 200).run();
+			fail("Probe reported a capacity for a rejected connection");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("NetConnection.Connect.Rejected"));
+		}
+
+		final Recording recording = this.server.getRecordings().get(0);
+
+		assertTrue(recording.awaitClosed(2, TimeUnit.SECONDS));
+		assertTrue(recording.getMessages(RtmpMessage.AUDIO).isEmpty());
+	}
+
+	@Test
+	public void parsesIngestUrl() {
+		final BandwidthProbe probe = BandwidthProbe.forUrl("rtmp://127.0.0.1/live/test", 100);
+
+		assertNotNull(probe);
+	}
+
+	@Test
+	public void selectsProfileWithinMargin() {
+		final AudioProfile low = new AudioProfile(AudioProfile.Aac.HE_V1, 32000, AudioProfile.CHANNEL_MONO, 32 * 1000);
+		final AudioProfile mid = new AudioProfile(AudioProfile.Aac.HE_V2, 44100, AudioProfile.CHANNEL_STEREO, 64 * 1000);
+		final AudioProfile high = AudioProfile.DEFAULT;
+		final AudioProfile[] profiles = {high, low, mid};
+
+		assertSame(mid, new BandwidthProbe.Result(10, 100 * 1000, 0, 1000).selectProfile(profiles, 0.7));
+		assertSame(high, new BandwidthProbe.Result(10, 1000 * 1000, 0, 1000).selectProfile(profiles, 0.7));
+		assertSame(low, new BandwidthProbe.Result(10, 10 * 1000, 0, 1000).selectProfile(profiles, 0.7));
+	}
+}
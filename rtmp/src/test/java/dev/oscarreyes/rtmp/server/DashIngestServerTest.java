@@ -0,0 +1,85 @@
+package dev.oscarreyes.rtmp.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DashIngestServerTest {
+	private DashIngestServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		this.server = new DashIngestServer();
+		this.server.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.server.close();
+	}
+
+	private int request(String method, String path, byte[] body, boolean chunked) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(this.server.getUrl(path)).openConnection();
+
+		connection.setRequestMethod(method);
+
+		if (body != null) {
+			connection.setDoOutput(true);
+
+			if (chunked) {
+				connection.setChunkedStreamingMode(7);
+			} else {
+				connection.setFixedLengthStreamingMode(body.length);
+			}
+
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			}
+		}
+
+		final int code = connection.getResponseCode();
+
+		connection.getInputStream().close();
+
+		return code;
+	}
+
+	private static byte[] pattern(int size) {
+		final byte[] data = new byte[size];
+
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) i;
+		}
+
+		return data;
+	}
+
+	@Test
+	public void keepsLastUploadOfEachPath() throws Exception {
+		assertEquals(200, this.request("PUT", "live/manifest.mpd", pattern(10), false));
+		assertEquals(200, this.request("PUT", "live/chunk-stream0-00001.m4s", pattern(1000), true));
+		assertEquals(200, this.request("PUT", "live/manifest.mpd", pattern(20), true));
+
+		assertEquals(Arrays.asList("/live/manifest.mpd", "/live/chunk-stream0-00001.m4s"), this.server.getPaths());
+		assertArrayEquals(pattern(20), this.server.getUpload("/live/manifest.mpd"));
+		assertArrayEquals(pattern(1000), this.server.getUpload("/live/chunk-stream0-00001.m4s"));
+	}
+
+	@Test
+	public void keepsDeletedContent() throws Exception {
+		this.request("PUT", "live/chunk-stream1-00001.m4s", pattern(100), false);
+
+		assertEquals(200, this.request("DELETE", "live/chunk-stream1-00001.m4s", null, false));
+		assertTrue(this.server.awaitDeleted("/live/chunk-stream1-00001.m4s", 1, TimeUnit.SECONDS));
+		assertArrayEquals(pattern(100), this.server.getUpload("/live/chunk-stream1-00001.m4s"));
+	}
+}
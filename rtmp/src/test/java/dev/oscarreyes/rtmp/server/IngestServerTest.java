@@ -0,0 +1,153 @@
+package dev.oscarreyes.rtmp.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IngestServerTest {
+	private static final int AAC_HE = 5;
+	private static final int FREQUENCY_32000 = 5;
+
+	private IngestServer server;
+	private RtmpTestClient client;
+
+	@Before
+	public void setUp() {
+		this.server = new IngestServer();
+		this.client = new RtmpTestClient();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.client.close();
+		this.server.close();
+	}
+
+	@Test
+	public void recordsPublishedAudio() throws Exception {
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+		this.client.sendAudio(0, RtmpTestClient.aacSequenceHeader(AAC_HE, FREQUENCY_32000, 1));
+
+		for (int i = 0; i < 50; i++) {
+			this.client.sendAudio(i * 64, RtmpTestClient.aacFrame(128));
+		}
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertNotNull(recording);
+		assertTrue(recording.awaitMessages(51, 5, TimeUnit.SECONDS));
+		assertEquals("live", recording.getApp());
+		assertEquals("test", recording.getStreamName());
+		assertEquals(51, recording.getMessages(RtmpMessage.AUDIO).size());
+		assertEquals(49 * 64, recording.getMessages().get(50).timestamp);
+		assertTrue(recording.validate().isEmpty());
+	}
+
+	@Test
+	public void reportsTimestampRegression() throws Exception {
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+		this.client.sendAudio(0, RtmpTestClient.aacSequenceHeader(AAC_HE, FREQUENCY_32000, 1));
+		this.client.sendAudio(64, RtmpTestClient.aacFrame(16));
+		this.client.sendAudio(32, RtmpTestClient.aacFrame(16));
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitMessages(3, 5, TimeUnit.SECONDS));
+
+		final List<String> errors = recording.validate();
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).contains("timestamp 32 after 64"));
+	}
+
+	@Test
+	public void reportsMissingSequenceHeader() throws Exception {
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+		this.client.sendAudio(0, RtmpTestClient.aacFrame(16));
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitMessages(1, 5, TimeUnit.SECONDS));
+		assertTrue(recording.validate().get(0).contains("before sequence header"));
+	}
+
+	@Test
+	public void reassemblesMessagesLargerThanChunkSize() throws Exception {
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+		this.client.sendAudio(0, RtmpTestClient.aacSequenceHeader(AAC_HE, FREQUENCY_32000, 1));
+		this.client.sendAudio(0x1000000, RtmpTestClient.aacFrame(10000));
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitMessages(2, 5, TimeUnit.SECONDS));
+
+		final RtmpMessage frame = recording.getMessages().get(1);
+
+		assertEquals(10002, frame.payload.length);
+		assertEquals(0x1000000, frame.timestamp);
+	}
+
+	@Test
+	public void delaysArrivalByLatency() throws Exception {
+		this.server.setLatency(200);
+		this.server.start();
+
+		final long start = System.nanoTime();
+
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+
+		// Handshake, connect, createStream and publish each wait for one delayed client message
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(4 * 200));
+	}
+
+	@Test
+	public void dropsSessionAfterConfiguredTime() throws Exception {
+		this.server.setDisconnectAfter(200);
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitClosed(5, TimeUnit.SECONDS));
+
+		try {
+			for (int i = 0; i < 1000; i++) {
+				this.client.sendAudio(i, RtmpTestClient.aacFrame(1024));
+				Thread.sleep(5);
+			}
+
+			fail("Writes should fail once the server dropped the session");
+		} catch (IOException expected) {
+		}
+	}
+
+	@Test
+	public void limitsThroughputToBandwidth() throws Exception {
+		this.server.setBandwidth(800 * 1000);
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+
+		// About 4 seconds worth of data at the limit, well over the socket buffers
+		for (int i = 0; i < 100; i++) {
+			this.client.sendAudio(i, RtmpTestClient.aacFrame(4000));
+		}
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitMessages(100, 10, TimeUnit.SECONDS));
+
+		final long throughput = recording.getThroughput();
+
+		assertTrue("Throughput " + throughput, throughput > 600 * 1000 && throughput < 1000 * 1000);
+	}
+}
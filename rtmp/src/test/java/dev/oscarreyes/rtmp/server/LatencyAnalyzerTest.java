@@ -0,0 +1,94 @@
+package dev.oscarreyes.rtmp.server;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import dev.oscarreyes.rtmp.io.LatencyTracer;
+
+import static org.junit.Assert.*;
+
+public class LatencyAnalyzerTest {
+	private static final long ENCODE_US = 20000;
+	private static final long MUX_US = 10000;
+	private static final long LINK_LATENCY_MS = 60;
+
+	private IngestServer server;
+	private RtmpTestClient client;
+
+	@Before
+	public void setUp() {
+		this.server = new IngestServer();
+		this.client = new RtmpTestClient();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		this.client.close();
+		this.server.close();
+	}
+
+	/**
+	 * Sends a trace for a packet muxed now, with fixed encoder and muxer delays
+	 */
+	private void sendTrace(LatencyTracer tracer, long pts) throws IOException {
+		final long now = System.nanoTime() / 1000;
+		final LatencyTracer.Trace trace = tracer.trace(pts, now - ENCODE_US - MUX_US, now - MUX_US, now);
+
+		this.client.sendData(pts / 1000, "onTextData", Amf0.object("type", "Text", "text", trace.toString()));
+	}
+
+	@Test
+	public void reportsStageLatencies() throws Exception {
+		this.server.setLatency(LINK_LATENCY_MS);
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+
+		final LatencyTracer tracer = new LatencyTracer(100);
+
+		for (int i = 0; i < 20; i++) {
+			this.sendTrace(tracer, i * 100000);
+			Thread.sleep(5);
+		}
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitMessages(20, 5, TimeUnit.SECONDS));
+
+		final LatencyAnalyzer analyzer = new LatencyAnalyzer(recording);
+
+		assertEquals(20, analyzer.getTraces().size());
+		assertEquals(0, analyzer.getMissing());
+		assertEquals(ENCODE_US, analyzer.getPercentile(LatencyAnalyzer.ENCODE, 50));
+		assertEquals(MUX_US, analyzer.getPercentile(LatencyAnalyzer.MUX, 99));
+		assertTrue(analyzer.getPercentile(LatencyAnalyzer.NETWORK, 50) >= LINK_LATENCY_MS * 1000);
+		assertTrue(analyzer.getPercentile(LatencyAnalyzer.TOTAL, 50) >= LINK_LATENCY_MS * 1000 + ENCODE_US + MUX_US);
+		assertTrue(analyzer.getPercentile(LatencyAnalyzer.TOTAL, 100) >= analyzer.getPercentile(LatencyAnalyzer.TOTAL, 50));
+		assertTrue(analyzer.toString().startsWith(String.format("20 traces, 0 missing%n")));
+	}
+
+	@Test
+	public void countsMissingTraces() throws Exception {
+		this.server.start();
+		this.client.publish("127.0.0.1", this.server.getPort(), "live", "test");
+
+		final LatencyTracer tracer = new LatencyTracer(100);
+
+		this.sendTrace(tracer, 0);
+		tracer.trace(100000, 0, 0, 0);
+		this.sendTrace(tracer, 200000);
+		this.client.sendData(300, "onMetaData", Amf0.object("duration", 0.0));
+
+		final Recording recording = this.server.awaitPublish(0, 5, TimeUnit.SECONDS);
+
+		assertTrue(recording.awaitMessages(3, 5, TimeUnit.SECONDS));
+
+		final LatencyAnalyzer analyzer = new LatencyAnalyzer(recording);
+
+		assertEquals(2, analyzer.getTraces().size());
+		assertEquals(1, analyzer.getMissing());
+	}
+}
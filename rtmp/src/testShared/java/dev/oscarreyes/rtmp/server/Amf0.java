@@ -0,0 +1,188 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal AMF0 encoder and decoder for RTMP commands and FLV script data
+ */
+public final class Amf0 {
+	private static final int NUMBER = 0x00;
+	private static final int BOOLEAN = 0x01;
+	private static final int STRING = 0x02;
+	private static final int OBJECT = 0x03;
+	private static final int NULL = 0x05;
+	private static final int UNDEFINED = 0x06;
+	private static final int ECMA_ARRAY = 0x08;
+	private static final int OBJECT_END = 0x09;
+	private static final int STRICT_ARRAY = 0x0A;
+	private static final int DATE = 0x0B;
+	private static final int LONG_STRING = 0x0C;
+
+	private Amf0() {
+	}
+
+	/**
+	 * Decodes all values in a payload
+	 *
+	 * @param payload AMF0 encoded values
+	 * @return Decoded values, objects as maps and numbers as doubles
+	 * @throws IOException If the payload is malformed
+	 */
+	public static List<Object> decodeAll(byte[] payload) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(payload);
+		final List<Object> values = new ArrayList<>();
+
+		try {
+			while (buffer.hasRemaining()) {
+				values.add(decode(buffer));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated AMF0 payload", e);
+		}
+
+		return values;
+	}
+
+	private static Object decode(ByteBuffer buffer) throws IOException {
+		final int type = buffer.get() & 0xFF;
+
+		switch (type) {
+			case NUMBER:
+				return buffer.getDouble();
+			case BOOLEAN:
+				return buffer.get() != 0;
+			case STRING:
+				return readString(buffer, buffer.getShort() & 0xFFFF);
+			case LONG_STRING:
+				return readString(buffer, buffer.getInt());
+			case OBJECT:
+				return readProperties(buffer);
+			case ECMA_ARRAY:
+				buffer.getInt(); // Approximate count, the end marker is authoritative
+				return readProperties(buffer);
+			case STRICT_ARRAY: {
+				final int count = buffer.getInt();
+				final List<Object> list = new ArrayList<>(count);
+
+				for (int i = 0; i < count; i++) {
+					list.add(decode(buffer));
+				}
+
+				return list;
+			}
+			case DATE: {
+				final double time = buffer.getDouble();
+				buffer.getShort(); // Time zone, unused
+				return time;
+			}
+			case NULL:
+			case UNDEFINED:
+				return null;
+			default:
+				throw new IOException("Unsupported AMF0 type " + type);
+		}
+	}
+
+	private static Map<String, Object> readProperties(ByteBuffer buffer) throws IOException {
+		final Map<String, Object> map = new LinkedHashMap<>();
+
+		while (true) {
+			final String key = readString(buffer, buffer.getShort() & 0xFFFF);
+
+			if (key.isEmpty() && (buffer.get(buffer.position()) & 0xFF) == OBJECT_END) {
+				buffer.get();
+				return map;
+			}
+
+			map.put(key, decode(buffer));
+		}
+	}
+
+	private static String readString(ByteBuffer buffer, int length) {
+		final byte[] bytes = new byte[length];
+
+		buffer.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Encodes values, supporting numbers, booleans, strings, maps and null
+	 *
+	 * @param values Values to encode
+	 * @return AMF0 payload
+	 */
+	public static byte[] encode(Object... values) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		for (Object value : values) {
+			write(out, value);
+		}
+
+		return out.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void write(ByteArrayOutputStream out, Object value) {
+		if (value == null) {
+			out.write(NULL);
+		} else if (value instanceof Number) {
+			final long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+
+			out.write(NUMBER);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (bits >> shift));
+			}
+		} else if (value instanceof Boolean) {
+			out.write(BOOLEAN);
+			out.write((Boolean) value ? 1 : 0);
+		} else if (value instanceof String) {
+			out.write(STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Map) {
+			out.write(OBJECT);
+
+			for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+				writeString(out, entry.getKey());
+				write(out, entry.getValue());
+			}
+
+			writeString(out, "");
+			out.write(OBJECT_END);
+		} else {
+			throw new IllegalArgumentException("Unsupported AMF0 value " + value.getClass());
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+		out.write(bytes.length >> 8);
+		out.write(bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Builds an object map from alternating keys and values
+	 *
+	 * @param keyValues Key, value, key, value...
+	 * @return Ordered map
+	 */
+	public static Map<String, Object> object(Object... keyValues) {
+		final Map<String, Object> map = new LinkedHashMap<>();
+
+		for (int i = 0; i < keyValues.length; i += 2) {
+			map.put((String) keyValues[i], keyValues[i + 1]);
+		}
+
+		return map;
+	}
+}
@@ -0,0 +1,181 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reassembles RTMP messages from a chunk stream.
+ * <p>
+ * Timestamp handling follows the FFmpeg reader: a type 3 header that starts a new message
+ * reuses the timestamp field of the previous header on the same chunk stream.
+ */
+public class ChunkReader {
+	private static final int DEFAULT_CHUNK_SIZE = 128;
+	private static final int EXTENDED_TIMESTAMP = 0xFFFFFF;
+
+	/**
+	 * Header state kept per chunk stream ID
+	 */
+	private static class ChunkStream {
+		long timestamp;
+		long timestampField;
+		boolean extended;
+		int length;
+		int type;
+		int streamId;
+		byte[] payload;
+		int received;
+	}
+
+	private final DataInputStream in;
+	private final Map<Integer, ChunkStream> streams = new HashMap<>();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private long bytesRead;
+
+	public ChunkReader(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+
+	/**
+	 * Total bytes consumed from the underlying stream
+	 */
+	public long getBytesRead() {
+		return this.bytesRead;
+	}
+
+	/**
+	 * Reads chunks until a complete message is available.
+	 * Set chunk size and abort messages are applied before being returned.
+	 *
+	 * @return Next message
+	 * @throws IOException On a malformed stream or end of stream
+	 */
+	public RtmpMessage read() throws IOException {
+		while (true) {
+			final RtmpMessage message = this.readChunk();
+
+			if (message == null) {
+				continue;
+			}
+
+			if (message.type == RtmpMessage.SET_CHUNK_SIZE) {
+				this.chunkSize = readInt(message.payload, 0) & 0x7FFFFFFF;
+			} else if (message.type == RtmpMessage.ABORT) {
+				this.streams.remove(readInt(message.payload, 0));
+			}
+
+			return message;
+		}
+	}
+
+	private RtmpMessage readChunk() throws IOException {
+		final int basic = this.readByte();
+		final int format = basic >> 6;
+		int csid = basic & 0x3F;
+
+		if (csid == 0) {
+			csid = 64 + this.readByte();
+		} else if (csid == 1) {
+			csid = 64 + this.readByte() + this.readByte() * 256;
+		}
+
+		ChunkStream stream = this.streams.get(csid);
+
+		if (stream == null) {
+			if (format != 0) {
+				throw new IOException("First chunk of stream " + csid + " has format " + format);
+			}
+
+			stream = new ChunkStream();
+			this.streams.put(csid, stream);
+		}
+
+		final boolean newMessage = stream.payload == null;
+
+		if (format < 3) {
+			long field = this.readUnsigned(3);
+
+			if (format < 2) {
+				stream.length = (int) this.readUnsigned(3);
+				stream.type = this.readByte();
+			}
+
+			if (format == 0) {
+				stream.streamId = Integer.reverseBytes((int) this.readUnsigned(4));
+			}
+
+			stream.extended = field == EXTENDED_TIMESTAMP;
+
+			if (stream.extended) {
+				field = this.readUnsigned(4);
+			}
+
+			stream.timestampField = field;
+			stream.timestamp = format == 0 ? field : stream.timestamp + field;
+		} else {
+			if (stream.extended) {
+				this.readUnsigned(4);
+			}
+
+			if (newMessage) {
+				stream.timestamp += stream.timestampField;
+			}
+		}
+
+		if (format < 3 && !newMessage) {
+			throw new IOException("New header on stream " + csid + " before message completed");
+		}
+
+		if (newMessage) {
+			stream.payload = new byte[stream.length];
+			stream.received = 0;
+		}
+
+		final int size = Math.min(this.chunkSize, stream.length - stream.received);
+
+		this.in.readFully(stream.payload, stream.received, size);
+		this.bytesRead += size;
+		stream.received += size;
+
+		if (stream.received < stream.length) {
+			return null;
+		}
+
+		final byte[] payload = stream.payload;
+		stream.payload = null;
+
+		return new RtmpMessage(csid, stream.type, stream.streamId, stream.timestamp, payload, System.nanoTime());
+	}
+
+	private int readByte() throws IOException {
+		final int value = this.in.read();
+
+		if (value < 0) {
+			throw new EOFException("Connection closed");
+		}
+
+		this.bytesRead++;
+
+		return value;
+	}
+
+	private long readUnsigned(int bytes) throws IOException {
+		long value = 0;
+
+		for (int i = 0; i < bytes; i++) {
+			value = (value << 8) | this.readByte();
+		}
+
+		return value;
+	}
+
+	static int readInt(byte[] buffer, int offset) {
+		return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+			| ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+	}
+}
@@ -0,0 +1,110 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes RTMP messages as chunks, always using a full header for the first chunk
+ */
+public class ChunkWriter {
+	private static final int DEFAULT_CHUNK_SIZE = 128;
+	private static final int EXTENDED_TIMESTAMP = 0xFFFFFF;
+
+	private final OutputStream out;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	public ChunkWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Sends a set chunk size message and switches to the new size
+	 *
+	 * @param chunkSize Chunk size in bytes
+	 * @throws IOException
+	 */
+	public synchronized void setChunkSize(int chunkSize) throws IOException {
+		this.writeControl(RtmpMessage.SET_CHUNK_SIZE, chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sends a protocol control message carrying one 32 bit value
+	 */
+	public synchronized void writeControl(int type, int value) throws IOException {
+		this.write(2, type, 0, 0, int32(value));
+	}
+
+	/**
+	 * Sends a set peer bandwidth message
+	 */
+	public synchronized void writePeerBandwidth(int size, int limit) throws IOException {
+		final byte[] payload = new byte[5];
+
+		System.arraycopy(int32(size), 0, payload, 0, 4);
+		payload[4] = (byte) limit;
+
+		this.write(2, RtmpMessage.SET_PEER_BANDWIDTH, 0, 0, payload);
+	}
+
+	/**
+	 * Sends an AMF0 command message
+	 */
+	public synchronized void writeCommand(int streamId, Object... values) throws IOException {
+		this.write(3, RtmpMessage.COMMAND_AMF0, streamId, 0, Amf0.encode(values));
+	}
+
+	/**
+	 * Writes a message split into chunks
+	 *
+	 * @param csid      Chunk stream ID (2 to 63)
+	 * @param type      Message type
+	 * @param streamId  Message stream ID
+	 * @param timestamp Timestamp in ms
+	 * @param payload   Message payload
+	 * @throws IOException
+	 */
+	public synchronized void write(int csid, int type, int streamId, long timestamp, byte[] payload) throws IOException {
+		final boolean extended = timestamp >= EXTENDED_TIMESTAMP;
+		final byte[] header = new byte[12];
+
+		header[0] = (byte) csid;
+		writeUnsigned(header, 1, extended ? EXTENDED_TIMESTAMP : timestamp, 3);
+		writeUnsigned(header, 4, payload.length, 3);
+		header[7] = (byte) type;
+		writeUnsigned(header, 8, Integer.reverseBytes(streamId) & 0xFFFFFFFFL, 4);
+
+		this.out.write(header);
+
+		int offset = 0;
+
+		do {
+			if (offset > 0) {
+				this.out.write(0xC0 | csid);
+			}
+
+			if (extended) {
+				this.out.write(int32((int) timestamp));
+			}
+
+			final int size = Math.min(this.chunkSize, payload.length - offset);
+
+			this.out.write(payload, offset, size);
+			offset += size;
+		} while (offset < payload.length);
+
+		this.out.flush();
+	}
+
+	private static void writeUnsigned(byte[] buffer, int offset, long value, int bytes) {
+		for (int i = bytes - 1; i >= 0; i--) {
+			buffer[offset + i] = (byte) value;
+			value >>= 8;
+		}
+	}
+
+	static byte[] int32(int value) {
+		return new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+	}
+}
@@ -0,0 +1,303 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embeddable HTTP ingest stand-in for DASH end-to-end tests.
+ * <p>
+ * Accepts PUT and POST uploads on the loopback interface, with a content length or chunked, over
+ * persistent connections, and keeps the last upload of every path. Deleted paths are recorded
+ * but their content is kept, so segments removed at the end of a stream can still be inspected.
+ */
+public class DashIngestServer implements Closeable {
+	private static final Logger log = Logger.getLogger(DashIngestServer.class.getSimpleName());
+
+	private final Map<String, byte[]> uploads = new LinkedHashMap<>();
+	private final Set<String> deleted = new HashSet<>();
+	private final List<Socket> clients = new ArrayList<>();
+
+	private ServerSocket serverSocket;
+
+	/**
+	 * Binds to an ephemeral loopback port and starts accepting connections
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				DashIngestServer.this.accept();
+			}
+		}, "DashIngestServer");
+
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets an upload URL pointing to this server
+	 *
+	 * @param path Path without the leading slash, such as live/manifest.mpd
+	 */
+	public String getUrl(String path) {
+		return String.format(Locale.ROOT, "http://127.0.0.1:%d/%s", this.getPort(), path);
+	}
+
+	/**
+	 * Gets the paths uploaded so far, in order of their first upload
+	 */
+	public synchronized List<String> getPaths() {
+		return new ArrayList<>(this.uploads.keySet());
+	}
+
+	/**
+	 * Gets the last complete upload of a path
+	 *
+	 * @param path Request path, such as /live/manifest.mpd
+	 * @return The content, or null if nothing was uploaded to it
+	 */
+	public synchronized byte[] getUpload(String path) {
+		return this.uploads.get(path);
+	}
+
+	public synchronized boolean isDeleted(String path) {
+		return this.deleted.contains(path);
+	}
+
+	/**
+	 * Waits for a path to be deleted, which a DASH muxer does for every file it removes at exit
+	 *
+	 * @return True if the path was deleted before the timeout
+	 */
+	public synchronized boolean awaitDeleted(String path, long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!this.deleted.contains(path)) {
+			final long left = deadline - System.nanoTime();
+
+			if (left <= 0) {
+				return false;
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.serverSocket != null) {
+			this.serverSocket.close();
+		}
+
+		synchronized (this) {
+			for (Socket client : this.clients) {
+				client.close();
+			}
+		}
+	}
+
+	private void accept() {
+		while (!this.serverSocket.isClosed()) {
+			try {
+				final Socket socket = this.serverSocket.accept();
+
+				synchronized (this) {
+					this.clients.add(socket);
+				}
+
+				final Thread connection = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						DashIngestServer.this.serve(socket);
+					}
+				}, "DashIngestConnection");
+
+				connection.setDaemon(true);
+				connection.start();
+			} catch (IOException e) {
+				if (!this.serverSocket.isClosed()) {
+					log.log(Level.WARNING, "Accept failed", e);
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			final InputStream in = new BufferedInputStream(socket.getInputStream());
+			final OutputStream out = socket.getOutputStream();
+
+			while (true) {
+				final String requestLine = readLine(in);
+
+				if (requestLine == null) {
+					return;
+				}
+
+				if (requestLine.isEmpty()) {
+					continue;
+				}
+
+				final String[] request = requestLine.split(" ");
+				final Map<String, String> headers = readHeaders(in);
+				final String method = request[0];
+				final String path = request[1];
+
+				if ("100-continue".equalsIgnoreCase(headers.get("expect"))) {
+					out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					out.flush();
+				}
+
+				final byte[] body = readBody(in, headers);
+				final String status;
+
+				if (method.equals("PUT") || method.equals("POST")) {
+					synchronized (this) {
+						this.uploads.put(path, body);
+						this.deleted.remove(path);
+						this.notifyAll();
+					}
+					status = "200 OK";
+				} else if (method.equals("DELETE")) {
+					synchronized (this) {
+						this.deleted.add(path);
+						this.notifyAll();
+					}
+					status = "200 OK";
+				} else {
+					status = "404 Not Found";
+				}
+
+				out.write(String.format("HTTP/1.1 %s\r\nContent-Length: 0\r\n\r\n", status).getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+
+				if ("close".equalsIgnoreCase(headers.get("connection"))) {
+					return;
+				}
+			}
+		} catch (IOException e) {
+			log.fine("Connection ended: " + e.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Reads headers up to the empty line, with lower case names
+	 */
+	private static Map<String, String> readHeaders(InputStream in) throws IOException {
+		final Map<String, String> headers = new HashMap<>();
+		String line;
+
+		while ((line = readLine(in)) != null && !line.isEmpty()) {
+			final int colon = line.indexOf(':');
+
+			if (colon > 0) {
+				headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+			}
+		}
+
+		return headers;
+	}
+
+	private static byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+			while (true) {
+				final String line = readLine(in);
+
+				if (line == null) {
+					throw new IOException("Truncated chunked body");
+				}
+
+				// Chunk extensions follow the size after a semicolon
+				final int extension = line.indexOf(';');
+				final int size = Integer.parseInt((extension >= 0 ? line.substring(0, extension) : line).trim(), 16);
+
+				if (size == 0) {
+					readHeaders(in);
+					break;
+				}
+
+				copy(in, body, size);
+				readLine(in);
+			}
+		} else if (headers.containsKey("content-length")) {
+			copy(in, body, Integer.parseInt(headers.get("content-length")));
+		}
+
+		return body.toByteArray();
+	}
+
+	private static void copy(InputStream in, ByteArrayOutputStream out, int size) throws IOException {
+		final byte[] buffer = new byte[8192];
+
+		while (size > 0) {
+			final int read = in.read(buffer, 0, Math.min(buffer.length, size));
+
+			if (read < 0) {
+				throw new IOException("Truncated body");
+			}
+
+			out.write(buffer, 0, read);
+			size -= read;
+		}
+	}
+
+	/**
+	 * Reads a CRLF terminated line
+	 *
+	 * @return The line without its terminator, or null at the end of the stream
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				return line.size() > 0 ? line.toString("US-ASCII") : null;
+			}
+
+			if (b != '\r') {
+				line.write(b);
+			}
+		}
+
+		return line.toString("US-ASCII");
+	}
+}
@@ -0,0 +1,355 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embeddable RTMP ingest stand-in for end-to-end tests.
+ * <p>
+ * Accepts publishing sessions on the loopback interface, answers connect / createStream / publish
+ * and records every audio, video and data message with its arrival time. The link to each client
+ * can be shaped with a bandwidth limit and one way latency, and sessions can be dropped after a
+ * fixed time to exercise reconnects.
+ */
+public class IngestServer implements Closeable {
+	private static final int HANDSHAKE_SIZE = 1536;
+	private static final int RTMP_VERSION = 3;
+	private static final int WINDOW_SIZE = 2500000;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int SHAPED_RECEIVE_BUFFER = 8 * 1024;
+	private static final int DEFAULT_STREAM_ID = 1;
+
+	private static final Logger log = Logger.getLogger(IngestServer.class.getSimpleName());
+
+	private final List<Recording> recordings = new ArrayList<>();
+	private final List<Socket> clients = new ArrayList<>();
+	private final Timer timer = new Timer("IngestServerTimer", true);
+
+	private ServerSocket serverSocket;
+	private boolean closed;
+	private long bandwidth;
+	private long latency;
+	private long disconnectAfter;
+	private int streamId = DEFAULT_STREAM_ID;
+	private boolean rejectConnect;
+
+	/**
+	 * Limits the client to server link capacity
+	 *
+	 * @param bandwidth Capacity in bps, 0 for unlimited
+	 */
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Delays everything received from the client
+	 *
+	 * @param latency One way latency in ms
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Drops each session some time after it started publishing
+	 *
+	 * @param disconnectAfter Time in ms, 0 to keep sessions open
+	 */
+	public void setDisconnectAfter(long disconnectAfter) {
+		this.disconnectAfter = disconnectAfter;
+	}
+
+	/**
+	 * Sets the message stream ID answered to createStream
+	 *
+	 * @param streamId Stream ID, 1 by default as most servers answer the first createStream
+	 */
+	public void setStreamId(int streamId) {
+		this.streamId = streamId;
+	}
+
+	/**
+	 * Answers connect with an error, as servers do for an unknown application or bad credentials
+	 *
+	 * @param rejectConnect Whether connect is rejected
+	 */
+	public void setRejectConnect(boolean rejectConnect) {
+		this.rejectConnect = rejectConnect;
+	}
+
+	/**
+	 * Binds to an ephemeral loopback port and starts accepting sessions
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		this.serverSocket = new ServerSocket();
+
+		// A small window makes TCP flow control follow the shaped rate closely
+		if (this.bandwidth > 0) {
+			this.serverSocket.setReceiveBufferSize(SHAPED_RECEIVE_BUFFER);
+		}
+
+		this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+		final Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				IngestServer.this.accept();
+			}
+		}, "IngestServer");
+
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return this.serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets a publishing URL pointing to this server
+	 *
+	 * @param app    Application name
+	 * @param stream Stream name
+	 */
+	public String getUrl(String app, String stream) {
+		return String.format("rtmp://127.0.0.1:%d/%s/%s", this.getPort(), app, stream);
+	}
+
+	/**
+	 * Gets a snapshot of all sessions accepted so far
+	 */
+	public synchronized List<Recording> getRecordings() {
+		return new ArrayList<>(this.recordings);
+	}
+
+	/**
+	 * Waits for a session to start publishing
+	 *
+	 * @param index Session index, in accept order
+	 * @return The recording, or null on timeout
+	 */
+	public synchronized Recording awaitPublish(int index, long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (true) {
+			if (this.recordings.size() > index && this.recordings.get(index).getStreamName() != null) {
+				return this.recordings.get(index);
+			}
+
+			final long left = deadline - System.nanoTime();
+
+			if (left <= 0) {
+				return null;
+			}
+
+			// Publish state lives in the recording, poll it in short steps
+			TimeUnit.NANOSECONDS.timedWait(this, Math.min(left, TimeUnit.MILLISECONDS.toNanos(10)));
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Under the lock so that a publish racing with close cannot schedule on the cancelled timer
+		synchronized (this) {
+			this.closed = true;
+			this.timer.cancel();
+		}
+
+		if (this.serverSocket != null) {
+			this.serverSocket.close();
+		}
+
+		synchronized (this) {
+			for (Socket client : this.clients) {
+				client.close();
+			}
+		}
+	}
+
+	private void accept() {
+		while (!this.serverSocket.isClosed()) {
+			try {
+				final Socket socket = this.serverSocket.accept();
+				final Recording recording = new Recording();
+
+				synchronized (this) {
+					this.clients.add(socket);
+					this.recordings.add(recording);
+					this.notifyAll();
+				}
+
+				final Thread session = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						IngestServer.this.serve(socket, recording);
+					}
+				}, "IngestSession");
+
+				session.setDaemon(true);
+				session.start();
+			} catch (IOException e) {
+				if (!this.serverSocket.isClosed()) {
+					log.log(Level.WARNING, "Accept failed", e);
+				}
+			}
+		}
+	}
+
+	private void serve(final Socket socket, Recording recording) {
+		try {
+			InputStream in = socket.getInputStream();
+
+			if (this.bandwidth > 0 || this.latency > 0) {
+				in = new ShapedInputStream(in, this.bandwidth, this.latency);
+			}
+
+			final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+			handshake(new DataInputStream(in), out);
+
+			final ChunkReader reader = new ChunkReader(in);
+			final ChunkWriter writer = new ChunkWriter(out);
+			long acknowledged = 0;
+
+			while (true) {
+				final RtmpMessage message = reader.read();
+
+				recording.setBytesReceived(reader.getBytesRead());
+
+				if (message.isMedia()) {
+					recording.add(message);
+				} else if (message.type == RtmpMessage.COMMAND_AMF0) {
+					this.onCommand(message, writer, recording, socket);
+				}
+
+				if (reader.getBytesRead() - acknowledged >= WINDOW_SIZE) {
+					acknowledged = reader.getBytesRead();
+					writer.writeControl(RtmpMessage.ACKNOWLEDGEMENT, (int) acknowledged);
+				}
+			}
+		} catch (IOException e) {
+			log.fine("Session ended: " + e.getMessage());
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ignored) {
+			}
+
+			recording.setClosed();
+		}
+	}
+
+	private void onCommand(RtmpMessage message, ChunkWriter writer, Recording recording, final Socket socket) throws IOException {
+		final List<Object> values = Amf0.decodeAll(message.payload);
+		final String name = (String) values.get(0);
+		final Object transaction = values.size() > 1 ? values.get(1) : 0.0;
+
+		switch (name) {
+			case "connect": {
+				final Object command = values.size() > 2 ? values.get(2) : null;
+
+				if (command instanceof Map) {
+					recording.setApp((String) ((Map<?, ?>) command).get("app"));
+				}
+
+				if (this.rejectConnect) {
+					writer.writeCommand(0, "_error", transaction, null,
+						Amf0.object("level", "error", "code", "NetConnection.Connect.Rejected",
+							"description", "Connection rejected."));
+					break;
+				}
+
+				writer.writeControl(RtmpMessage.WINDOW_ACK_SIZE, WINDOW_SIZE);
+				writer.writePeerBandwidth(WINDOW_SIZE, 2);
+				writer.setChunkSize(CHUNK_SIZE);
+				writer.writeCommand(0, "_result", transaction,
+					Amf0.object("fmsVer", "FMS/3,0,1,123", "capabilities", 31.0),
+					Amf0.object("level", "status", "code", "NetConnection.Connect.Success",
+						"description", "Connection succeeded.", "objectEncoding", 0.0));
+				break;
+			}
+			case "createStream":
+				writer.writeCommand(0, "_result", transaction, null, (double) this.streamId);
+				break;
+			case "publish": {
+				final String streamName = values.size() > 3 ? (String) values.get(3) : "";
+
+				recording.setPublished(streamName);
+				writer.writeCommand(this.streamId, "onStatus", 0.0, null,
+					Amf0.object("level", "status", "code", "NetStream.Publish.Start",
+						"description", "Start publishing " + streamName));
+
+				synchronized (this) {
+					this.notifyAll();
+
+					if (this.disconnectAfter > 0 && !this.closed) {
+						this.timer.schedule(new TimerTask() {
+							@Override
+							public void run() {
+								try {
+									socket.close();
+								} catch (IOException ignored) {
+								}
+							}
+						}, this.disconnectAfter);
+					}
+				}
+				break;
+			}
+			case "deleteStream":
+			case "FCUnpublish":
+				break;
+			default:
+				if (transaction instanceof Double && (Double) transaction > 0) {
+					writer.writeCommand(0, "_result", transaction, null, null);
+				}
+		}
+	}
+
+	/**
+	 * Server side of the plain RTMP handshake, S2 echoes C1
+	 */
+	private static void handshake(DataInputStream in, OutputStream out) throws IOException {
+		final byte[] c1 = new byte[HANDSHAKE_SIZE];
+		final byte[] s1 = new byte[HANDSHAKE_SIZE];
+
+		final int version = in.read();
+		if (version != RTMP_VERSION) {
+			throw new IOException("Unsupported RTMP version " + version);
+		}
+
+		in.readFully(c1);
+
+		new Random().nextBytes(s1);
+		for (int i = 0; i < 8; i++) {
+			s1[i] = 0;
+		}
+
+		out.write(RTMP_VERSION);
+		out.write(s1);
+		out.write(c1);
+		out.flush();
+
+		in.readFully(new byte[HANDSHAKE_SIZE]);
+	}
+}
@@ -0,0 +1,139 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import dev.oscarreyes.rtmp.io.LatencyTracer;
+
+/**
+ * Turns the latency traces of a recorded session into per-stage percentiles.
+ * <p>
+ * Stages are capture to encoder output, encoder output to muxer, muxer to ingest arrival and
+ * the total from capture to arrival. Arrival times are converted to wall clock with this JVM's
+ * clocks, so the publisher must share them: a JVM test, or a device test running the stand-in
+ * in process.
+ */
+public class LatencyAnalyzer {
+	public static final int ENCODE = 0;
+	public static final int MUX = 1;
+	public static final int NETWORK = 2;
+	public static final int TOTAL = 3;
+
+	private static final String[] STAGE_NAMES = {"encode", "mux", "network", "total"};
+	private static final double[] REPORTED = {50, 90, 99, 100};
+
+	private final List<LatencyTracer.Trace> traces = new ArrayList<>();
+	private final long[][] stages;
+	private final long missing;
+
+	/**
+	 * Collects the traces received in a session
+	 *
+	 * @param recording Recorded session
+	 * @throws IOException If a data message is not valid AMF0
+	 */
+	public LatencyAnalyzer(Recording recording) throws IOException {
+		final List<RtmpMessage> messages = recording.getMessages(RtmpMessage.DATA_AMF0);
+		final List<Long> arrivals = new ArrayList<>();
+		final long wallOffset = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+
+		for (RtmpMessage message : messages) {
+			final LatencyTracer.Trace trace = parse(message.payload);
+
+			if (trace != null) {
+				this.traces.add(trace);
+				arrivals.add(message.arrivalNanos / 1000 + wallOffset);
+			}
+		}
+
+		this.stages = new long[STAGE_NAMES.length][this.traces.size()];
+
+		for (int i = 0; i < this.traces.size(); i++) {
+			final LatencyTracer.Trace trace = this.traces.get(i);
+			final long arrival = arrivals.get(i);
+
+			this.stages[ENCODE][i] = trace.encode - trace.capture;
+			this.stages[MUX][i] = trace.mux - trace.encode;
+			this.stages[NETWORK][i] = arrival - trace.mux;
+			this.stages[TOTAL][i] = arrival - trace.capture;
+		}
+
+		for (long[] stage : this.stages) {
+			Arrays.sort(stage);
+		}
+
+		this.missing = this.traces.isEmpty() ? 0
+			: this.traces.get(this.traces.size() - 1).sequence - this.traces.get(0).sequence + 1 - this.traces.size();
+	}
+
+	/**
+	 * Extracts a trace from an onTextData message
+	 */
+	private static LatencyTracer.Trace parse(byte[] payload) throws IOException {
+		final List<Object> values = Amf0.decodeAll(payload);
+
+		if (values.size() < 2 || !"onTextData".equals(values.get(0)) || !(values.get(1) instanceof Map)) {
+			return null;
+		}
+
+		final Object text = ((Map<?, ?>) values.get(1)).get("text");
+
+		return text instanceof String ? LatencyTracer.parse((String) text) : null;
+	}
+
+	public List<LatencyTracer.Trace> getTraces() {
+		return this.traces;
+	}
+
+	/**
+	 * Gets the number of traces lost between the first and last one received
+	 */
+	public long getMissing() {
+		return this.missing;
+	}
+
+	/**
+	 * Gets a latency percentile using the nearest rank method
+	 *
+	 * @param stage      Stage, such as {@link #TOTAL}
+	 * @param percentile Percentile between 0 and 100
+	 * @return Latency in microseconds
+	 */
+	public long getPercentile(int stage, double percentile) {
+		final long[] values = this.stages[stage];
+
+		if (values.length == 0) {
+			throw new IllegalStateException("No traces received");
+		}
+
+		final int rank = (int) Math.ceil(percentile / 100 * values.length);
+
+		return values[Math.max(0, Math.min(values.length, rank) - 1)];
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder report = new StringBuilder(String.format("%d traces, %d missing%n", this.traces.size(), this.missing));
+
+		if (this.traces.isEmpty()) {
+			return report.toString();
+		}
+
+		report.append(String.format("%-8s %9s %9s %9s %9s%n", "stage", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+
+		for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+			report.append(String.format("%-8s", STAGE_NAMES[stage]));
+
+			for (double percentile : REPORTED) {
+				report.append(String.format(" %9.1f", this.getPercentile(stage, percentile) / 1000.0));
+			}
+
+			report.append(String.format("%n"));
+		}
+
+		return report.toString();
+	}
+}
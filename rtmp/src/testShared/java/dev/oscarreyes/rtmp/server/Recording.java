@@ -0,0 +1,270 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything received on one publishing session: media messages with their arrival times,
+ * plus checks on FLV tag contents and timestamp ordering.
+ */
+public class Recording {
+	private static final int SOUND_FORMAT_AAC = 10;
+	private static final int VIDEO_CODEC_AVC = 7;
+
+	private final List<RtmpMessage> messages = new ArrayList<>();
+
+	private String app;
+	private String streamName;
+	private long publishNanos;
+	private long bytesReceived;
+	private boolean closed;
+
+	synchronized void setApp(String app) {
+		this.app = app;
+	}
+
+	synchronized void setPublished(String streamName) {
+		this.streamName = streamName;
+		this.publishNanos = System.nanoTime();
+		this.notifyAll();
+	}
+
+	synchronized void add(RtmpMessage message) {
+		this.messages.add(message);
+		this.notifyAll();
+	}
+
+	synchronized void setBytesReceived(long bytesReceived) {
+		this.bytesReceived = bytesReceived;
+	}
+
+	synchronized void setClosed() {
+		this.closed = true;
+		this.notifyAll();
+	}
+
+	public synchronized String getApp() {
+		return this.app;
+	}
+
+	public synchronized String getStreamName() {
+		return this.streamName;
+	}
+
+	/**
+	 * System.nanoTime() when the publish command was received
+	 */
+	public synchronized long getPublishNanos() {
+		return this.publishNanos;
+	}
+
+	public synchronized long getBytesReceived() {
+		return this.bytesReceived;
+	}
+
+	public synchronized boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Gets a snapshot of the media and data messages received so far
+	 */
+	public synchronized List<RtmpMessage> getMessages() {
+		return new ArrayList<>(this.messages);
+	}
+
+	/**
+	 * Gets a snapshot of the messages of one type
+	 *
+	 * @param type RTMP message type
+	 */
+	public synchronized List<RtmpMessage> getMessages(int type) {
+		final List<RtmpMessage> result = new ArrayList<>();
+
+		for (RtmpMessage message : this.messages) {
+			if (message.type == type) {
+				result.add(message);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Waits until at least a number of media messages arrived or the session closed
+	 *
+	 * @return True if the count was reached
+	 */
+	public synchronized boolean awaitMessages(int count, long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (this.messages.size() < count && !this.closed) {
+			final long left = deadline - System.nanoTime();
+
+			if (left <= 0) {
+				break;
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+
+		return this.messages.size() >= count;
+	}
+
+	/**
+	 * Waits until the session is closed by either side
+	 */
+	public synchronized boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+		while (!this.closed) {
+			final long left = deadline - System.nanoTime();
+
+			if (left <= 0) {
+				break;
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+
+		return this.closed;
+	}
+
+	/**
+	 * Gets the average media payload throughput between the first and last message
+	 *
+	 * @return Throughput in bps, 0 with fewer than two messages
+	 */
+	public synchronized long getThroughput() {
+		if (this.messages.size() < 2) {
+			return 0;
+		}
+
+		long bytes = 0;
+
+		for (int i = 1; i < this.messages.size(); i++) {
+			bytes += this.messages.get(i).payload.length;
+		}
+
+		final long elapsed = this.messages.get(this.messages.size() - 1).arrivalNanos - this.messages.get(0).arrivalNanos;
+
+		return elapsed > 0 ? bytes * 8 * 1000000000L / elapsed : 0;
+	}
+
+	/**
+	 * Checks timestamp ordering and codec headers of all media messages
+	 *
+	 * @return Problems found, empty when the stream is valid
+	 */
+	public synchronized List<String> validate() {
+		final List<String> errors = new ArrayList<>();
+		final Map<Integer, Long> lastTimestamps = new HashMap<>();
+		boolean audioConfig = false;
+		boolean videoConfig = false;
+
+		for (int i = 0; i < this.messages.size(); i++) {
+			final RtmpMessage message = this.messages.get(i);
+			final Long last = lastTimestamps.put(message.type, message.timestamp);
+
+			if (last != null && message.timestamp < last) {
+				errors.add(String.format("Message %d (type %d): timestamp %d after %d", i, message.type, message.timestamp, last));
+			}
+
+			if (message.type == RtmpMessage.AUDIO) {
+				audioConfig = validateAudio(i, message.payload, audioConfig, errors);
+			} else if (message.type == RtmpMessage.VIDEO) {
+				videoConfig = validateVideo(i, message.payload, videoConfig, errors);
+			}
+		}
+
+		return errors;
+	}
+
+	private static boolean validateAudio(int index, byte[] tag, boolean configured, List<String> errors) {
+		if (tag.length < 2) {
+			errors.add(String.format("Message %d: audio tag too short", index));
+			return configured;
+		}
+
+		final int format = (tag[0] & 0xFF) >> 4;
+
+		if (format != SOUND_FORMAT_AAC) {
+			errors.add(String.format("Message %d: unexpected sound format %d", index, format));
+			return configured;
+		}
+
+		if (tag[1] == 0) {
+			final String error = checkAudioSpecificConfig(tag);
+
+			if (error != null) {
+				errors.add(String.format("Message %d: %s", index, error));
+				return configured;
+			}
+
+			return true;
+		}
+
+		if (!configured) {
+			errors.add(String.format("Message %d: AAC frame before sequence header", index));
+		}
+
+		return configured;
+	}
+
+	private static String checkAudioSpecificConfig(byte[] tag) {
+		if (tag.length < 4) {
+			return "AudioSpecificConfig too short";
+		}
+
+		final int objectType = (tag[2] & 0xFF) >> 3;
+		final int frequencyIndex = ((tag[2] & 0x07) << 1) | ((tag[3] & 0xFF) >> 7);
+		final int channels = (tag[3] >> 3) & 0x0F;
+
+		if (objectType == 0 || objectType == 31) {
+			return "invalid audio object type " + objectType;
+		}
+
+		if (frequencyIndex > 12) {
+			return "invalid sampling frequency index " + frequencyIndex;
+		}
+
+		if (channels == 0 || channels > 7) {
+			return "invalid channel configuration " + channels;
+		}
+
+		return null;
+	}
+
+	private static boolean validateVideo(int index, byte[] tag, boolean configured, List<String> errors) {
+		if (tag.length < 5) {
+			errors.add(String.format("Message %d: video tag too short", index));
+			return configured;
+		}
+
+		final int codec = tag[0] & 0x0F;
+
+		if (codec != VIDEO_CODEC_AVC) {
+			errors.add(String.format("Message %d: unexpected video codec %d", index, codec));
+			return configured;
+		}
+
+		if (tag[1] == 0) {
+			// AVCDecoderConfigurationRecord: version 1, then profile, compatibility and level
+			if (tag.length < 11 || tag[5] != 1) {
+				errors.add(String.format("Message %d: invalid AVCDecoderConfigurationRecord", index));
+				return configured;
+			}
+
+			return true;
+		}
+
+		if (!configured) {
+			errors.add(String.format("Message %d: AVC frame before sequence header", index));
+		}
+
+		return configured;
+	}
+}
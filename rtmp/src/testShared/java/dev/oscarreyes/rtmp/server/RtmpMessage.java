@@ -0,0 +1,46 @@
+package dev.oscarreyes.rtmp.server;
+
+/**
+ * A reassembled RTMP message
+ */
+public class RtmpMessage {
+	public static final int SET_CHUNK_SIZE = 1;
+	public static final int ABORT = 2;
+	public static final int ACKNOWLEDGEMENT = 3;
+	public static final int USER_CONTROL = 4;
+	public static final int WINDOW_ACK_SIZE = 5;
+	public static final int SET_PEER_BANDWIDTH = 6;
+	public static final int AUDIO = 8;
+	public static final int VIDEO = 9;
+	public static final int DATA_AMF0 = 18;
+	public static final int COMMAND_AMF0 = 20;
+
+	public final int csid;
+	public final int type;
+	public final int streamId;
+	public final long timestamp;
+	public final byte[] payload;
+
+	/**
+	 * System.nanoTime() when the last byte of the message was received
+	 */
+	public final long arrivalNanos;
+
+	public RtmpMessage(int csid, int type, int streamId, long timestamp, byte[] payload, long arrivalNanos) {
+		this.csid = csid;
+		this.type = type;
+		this.streamId = streamId;
+		this.timestamp = timestamp;
+		this.payload = payload;
+		this.arrivalNanos = arrivalNanos;
+	}
+
+	public boolean isMedia() {
+		return this.type == AUDIO || this.type == VIDEO || this.type == DATA_AMF0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("type=%d stream=%d ts=%d size=%d", this.type, this.streamId, this.timestamp, this.payload.length);
+	}
+}
@@ -0,0 +1,164 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Bare RTMP publisher used to drive {@link IngestServer} from JVM tests
+ */
+public class RtmpTestClient implements Closeable {
+	private static final int HANDSHAKE_SIZE = 1536;
+	private static final int RTMP_VERSION = 3;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int TIMEOUT = 5000;
+
+	private static final int CSID_AUDIO = 4;
+	private static final int CSID_DATA = 5;
+	private static final int CSID_VIDEO = 6;
+
+	private final Socket socket = new Socket();
+
+	private ChunkReader reader;
+	private ChunkWriter writer;
+	private int streamId;
+
+	/**
+	 * Connects and starts publishing
+	 *
+	 * @param host   Server host
+	 * @param port   Server port
+	 * @param app    Application name
+	 * @param stream Stream name
+	 * @throws IOException If the server rejects any step
+	 */
+	public void publish(String host, int port, String app, String stream) throws IOException {
+		this.socket.setTcpNoDelay(true);
+		this.socket.setSoTimeout(TIMEOUT);
+		this.socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+
+		final InputStream in = this.socket.getInputStream();
+		final OutputStream out = new BufferedOutputStream(this.socket.getOutputStream());
+
+		handshake(new DataInputStream(in), out);
+
+		this.reader = new ChunkReader(in);
+		this.writer = new ChunkWriter(out);
+
+		this.writer.writeCommand(0, "connect", 1.0, Amf0.object(
+			"app", app, "type", "nonprivate", "tcUrl", String.format("rtmp://%s:%d/%s", host, port, app)));
+		this.awaitCommand("_result");
+
+		this.writer.setChunkSize(CHUNK_SIZE);
+		this.writer.writeCommand(0, "createStream", 2.0, null);
+		this.streamId = ((Double) this.awaitCommand("_result").get(3)).intValue();
+
+		this.writer.writeCommand(this.streamId, "publish", 3.0, null, stream, "live");
+
+		final Map<?, ?> status = (Map<?, ?>) this.awaitCommand("onStatus").get(3);
+
+		if (!"NetStream.Publish.Start".equals(status.get("code"))) {
+			throw new IOException("Publish rejected: " + status.get("code"));
+		}
+	}
+
+	/**
+	 * Sends an FLV audio tag body
+	 */
+	public void sendAudio(long timestamp, byte[] tag) throws IOException {
+		this.writer.write(CSID_AUDIO, RtmpMessage.AUDIO, this.streamId, timestamp, tag);
+	}
+
+	/**
+	 * Sends an FLV video tag body
+	 */
+	public void sendVideo(long timestamp, byte[] tag) throws IOException {
+		this.writer.write(CSID_VIDEO, RtmpMessage.VIDEO, this.streamId, timestamp, tag);
+	}
+
+	/**
+	 * Sends AMF0 values as a data message
+	 */
+	public void sendData(long timestamp, Object... values) throws IOException {
+		this.writer.write(CSID_DATA, RtmpMessage.DATA_AMF0, this.streamId, timestamp, Amf0.encode(values));
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.socket.close();
+	}
+
+	private List<Object> awaitCommand(String name) throws IOException {
+		while (true) {
+			final RtmpMessage message = this.reader.read();
+
+			if (message.type == RtmpMessage.COMMAND_AMF0) {
+				final List<Object> values = Amf0.decodeAll(message.payload);
+
+				if (name.equals(values.get(0))) {
+					return values;
+				}
+
+				if ("_error".equals(values.get(0))) {
+					throw new IOException("Server error: " + values);
+				}
+			}
+		}
+	}
+
+	private static void handshake(DataInputStream in, OutputStream out) throws IOException {
+		final byte[] c1 = new byte[HANDSHAKE_SIZE];
+		final byte[] s1 = new byte[HANDSHAKE_SIZE];
+
+		new Random().nextBytes(c1);
+
+		out.write(RTMP_VERSION);
+		out.write(c1);
+		out.flush();
+
+		if (in.read() != RTMP_VERSION) {
+			throw new IOException("Unexpected RTMP version");
+		}
+
+		in.readFully(s1);
+		out.write(s1);
+		out.flush();
+
+		in.readFully(new byte[HANDSHAKE_SIZE]);
+	}
+
+	/**
+	 * Builds an AAC sequence header tag for an AudioSpecificConfig
+	 *
+	 * @param objectType     MPEG-4 audio object type
+	 * @param frequencyIndex Sampling frequency index
+	 * @param channels       Channel configuration
+	 */
+	public static byte[] aacSequenceHeader(int objectType, int frequencyIndex, int channels) {
+		final int config = (objectType << 11) | (frequencyIndex << 7) | (channels << 3);
+
+		return new byte[]{(byte) 0xAF, 0x00, (byte) (config >> 8), (byte) config};
+	}
+
+	/**
+	 * Builds an AAC raw frame tag with a filler payload
+	 *
+	 * @param size Raw frame size in bytes
+	 */
+	public static byte[] aacFrame(int size) {
+		final byte[] tag = new byte[2 + size];
+
+		tag[0] = (byte) 0xAF;
+		tag[1] = 0x01;
+
+		return tag;
+	}
+}
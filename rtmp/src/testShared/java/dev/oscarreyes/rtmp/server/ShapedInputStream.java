@@ -0,0 +1,147 @@
+package dev.oscarreyes.rtmp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Emulates a constrained link in front of a socket input stream.
+ * <p>
+ * A pump thread drains the socket no faster than the configured bandwidth, so TCP flow control
+ * pushes back on the sender, and every block read is held back for the configured one way latency
+ * before the consumer sees it.
+ */
+class ShapedInputStream extends InputStream {
+	private static final int MAX_BLOCK = 4096;
+
+	/**
+	 * A block of received bytes and when it may be delivered
+	 */
+	private static class Block {
+		final byte[] data;
+		final int length;
+		final long deliverAt;
+
+		Block(byte[] data, int length, long deliverAt) {
+			this.data = data;
+			this.length = length;
+			this.deliverAt = deliverAt;
+		}
+	}
+
+	private static final Block END = new Block(new byte[0], -1, 0);
+
+	private final InputStream in;
+	private final long bandwidth;
+	private final long latencyNanos;
+	private final BlockingQueue<Block> queue = new LinkedBlockingQueue<>();
+
+	private Block current;
+	private int position;
+
+	/**
+	 * @param in        Socket input stream
+	 * @param bandwidth Link capacity in bps, 0 for unlimited
+	 * @param latency   One way latency in ms
+	 */
+	ShapedInputStream(InputStream in, long bandwidth, long latency) {
+		this.in = in;
+		this.bandwidth = bandwidth;
+		this.latencyNanos = latency * 1000000;
+
+		final Thread pump = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				ShapedInputStream.this.pump();
+			}
+		}, "IngestLinkShaper");
+
+		pump.setDaemon(true);
+		pump.start();
+	}
+
+	private void pump() {
+		// Read about 10 ms worth of data at a time so pacing stays smooth at low rates
+		final int blockSize = this.bandwidth > 0
+			? (int) Math.max(1, Math.min(MAX_BLOCK, this.bandwidth / 8 / 100))
+			: MAX_BLOCK;
+		final long start = System.nanoTime();
+		long total = 0;
+
+		try {
+			while (true) {
+				final byte[] data = new byte[blockSize];
+				final int length = this.in.read(data);
+
+				if (length < 0) {
+					break;
+				}
+
+				final long now = System.nanoTime();
+
+				this.queue.put(new Block(data, length, now + this.latencyNanos));
+				total += length;
+
+				if (this.bandwidth > 0) {
+					final long due = start + total * 8 * 1000000000L / this.bandwidth;
+					final long wait = due - System.nanoTime();
+
+					if (wait > 0) {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					}
+				}
+			}
+		} catch (IOException | InterruptedException ignored) {
+		}
+
+		this.queue.add(END);
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] one = new byte[1];
+
+		return this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+
+		try {
+			if (this.current == null || this.position == this.current.length) {
+				this.current = this.queue.take();
+				this.position = 0;
+			}
+
+			if (this.current == END) {
+				this.queue.add(END);
+				return -1;
+			}
+
+			final long wait = this.current.deliverAt - System.nanoTime();
+
+			if (wait > 0) {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+
+		final int size = Math.min(length, this.current.length - this.position);
+
+		System.arraycopy(this.current.data, this.position, buffer, offset, size);
+		this.position += size;
+
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+}